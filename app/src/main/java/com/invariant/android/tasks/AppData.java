@@ -2,11 +2,21 @@ package com.invariant.android.tasks;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.DisplayMetrics;
 
 import com.invariant.android.tasks.database.DatabaseHandler;
+import com.invariant.android.tasks.database.TagDictionary;
+import com.invariant.android.tasks.database.TaskWindow;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class for storing all global application data.
@@ -18,6 +28,11 @@ public class AppData extends Application {
      * Constant for undefined dimensions. Used to know when they are undefined
      */
     private static final int DIMENSION_UNDEFINED = -1;
+    /**
+     * How the order of the tasks is persisted.
+     * See {@link DatabaseHandler#ORDER_BY_POSITION} and {@link DatabaseHandler#ORDER_BY_RANK}.
+     */
+    private static final int ORDERING_MODE = DatabaseHandler.ORDER_BY_POSITION;
     /**
      * Dimensions of the physical device in pixels
      */
@@ -25,15 +40,99 @@ public class AppData extends Application {
 
 
     /**
-     * List of all stored tasks
+     * Latest snapshot of the list of all stored tasks. Every change publishes a new immutable
+     * version (see {@link TaskTree}), so readers on any thread never block or see torn state.
+     * Written only while holding {@link #tasksLock}.
+     */
+    private volatile TaskTree tasks;
+    /**
+     * Entries of all tasks of {@link #tasks} mapped by id, for finding the tasks and their positions.
+     * Guarded by {@link #tasksLock}.
+     */
+    private TaskIdIndex taskIndex;
+    /**
+     * Time ranges of all tasks of {@link #tasks}, for the queries by time. Guarded by {@link #tasksLock}.
+     */
+    private TaskIntervalIndex intervalIndex;
+    /**
+     * Rows of the tasks of every tag of {@link #tasks}. Guarded by {@link #tasksLock}.
+     */
+    private TagRowIndex tagRowIndex;
+    /**
+     * Serializes writers of {@link #tasks}: the UI and the loader thread.
+     */
+    private final Object tasksLock = new Object();
+    /**
+     * Handler for notifying the listener on the main thread.
+     */
+    private Handler mainHandler;
+
+    /**
+     * Paged view of the tasks. Used instead of {@link #tasks} when the list is too large to be
+     * loaded whole, null otherwise. See {@link #startPagedLoading()}. Used only on the main thread.
+     */
+    private TaskWindow taskWindow;
+
+    /**
+     * True when all tasks are loaded.
+     */
+    private volatile boolean loadComplete;
+
+    /**
+     * Interface for the custom listener for the progress of loading the tasks.
+     */
+    public interface OnTasksLoadedListener {
+        /**
+         * Called when loaded tasks are added to the end of the tasks list.
+         * @param fromPosition Position of the first added task.
+         * @param count Number of added tasks.
+         */
+        void onTasksAppended(int fromPosition, int count);
+
+        /**
+         * Called when all tasks are loaded.
+         */
+        void onLoadComplete();
+    }
+    /**
+     * Listener
+     */
+    private OnTasksLoadedListener onTasksLoadedListener = null;
+
+    /**
+     * Interface for the custom listener for the changes of the tasks list.
+     * Called on the main thread, after the new snapshot is published.
+     */
+    public interface OnTasksChangedListener {
+        void onTasksChanged(TaskChange change);
+    }
+    /**
+     * Listener. Not called when tasks are paged, the {@link TaskWindow} notifies about changes then.
+     */
+    private OnTasksChangedListener onTasksChangedListener = null;
+
+    /**
+     * Interface for the custom listener for the search results.
      */
-    private ArrayList<Task> tasks;
+    public interface OnSearchResultListener {
+        /**
+         * Called on the main thread.
+         * @param results Found tasks, in the list order.
+         */
+        void onSearchResult(TaskTree results);
+    }
 
     /**
      * Handler for all the db work.
      */
     private DatabaseHandler dbHandler;
 
+    /**
+     * Log of the changes for undo, redo and delayed persisting. See {@link OperationLog}.
+     * Changes of paged tasks are written right away and can't be undone.
+     */
+    private OperationLog operationLog;
+
     /**
      * Method automatically called on application start. Sets up all important data.
      */
@@ -41,10 +140,26 @@ public class AppData extends Application {
     public void onCreate() {
         super.onCreate();
         screenWidth = screenHeight = DIMENSION_UNDEFINED;
-        tasks = new ArrayList<>();
+        tasks = TaskTree.EMPTY;
+        taskIndex = new TaskIdIndex();
+        intervalIndex = new TaskIntervalIndex();
+        tagRowIndex = new TagRowIndex();
+        mainHandler = new Handler(Looper.getMainLooper());
+        loadComplete = false;
 
-        dbHandler = new DatabaseHandler(this);
+        dbHandler = new DatabaseHandler(this, ORDERING_MODE);
+        operationLog = new OperationLog(dbHandler, mainHandler);
         dbHandler.loadAllTasks();
+
+        // Cached date strings depend on the locale and the time zone
+        IntentFilter filter = new IntentFilter(Intent.ACTION_LOCALE_CHANGED);
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                DateFormatter.invalidate();
+            }
+        }, filter);
     }
 
     /**
@@ -82,62 +197,424 @@ public class AppData extends Application {
      * @return A valid {@link Task} ID for construction new {@link Task}
      */
     public int getNextId() {
-        int maxId = 0;
-        for(Task t : tasks) {
-            maxId = Math.max(maxId, t.getId());
-        }
-        return maxId+1;
+        return dbHandler.getNextId();
+    }
+
+    /**
+     * @return Dictionary for resolving tag names and ids. See {@link Task#getTagId()}.
+     */
+    public TagDictionary getTagDictionary() {
+        return dbHandler.getTagDictionary();
     }
 
     /**
      * Moves the element from previous {@param fromPosition} to the new position {@param toPosition}.
+     * Paged tasks can't be moved, positions in the {@link TaskWindow} are outdated
+     * until it reloads after every write (see {@link com.invariant.android.tasks.dragAndDrop.DragAndDropHandler}).
      *
      * @param fromPosition Previous position
      * @param toPosition To position
      */
     public void moveItem(int fromPosition, int toPosition) {
-        Task moveItem = tasks.get(fromPosition);
-        tasks.remove(moveItem);
-        tasks.add(toPosition, moveItem);
-        for(int idx = 0; idx < tasks.size(); idx++) {
-            tasks.get(idx).setPosition(idx);
-        }
-        dbHandler.updateAll();
+        if(taskWindow != null) return;
+        applyChange(TaskChange.moved(fromPosition, toPosition, tasks.get(fromPosition)), true);
     }
 
     /**
      * Getter method for {@link this#tasks}.
+     * @return Current snapshot. It never changes, get the new one after the tasks change.
      */
-    public ArrayList<Task> getTasks() {
+    public TaskTree getTasks() {
         return tasks;
     }
 
     /**
-     * Replaces task at the given position with the new task.
-     * @param position Position of the old task.
+     * Adds loaded tasks to the end of the tasks list and notifies the listener on the main thread.
+     * Called on the loader thread. The tree of the new tasks is built before taking the lock and
+     * joined to the list in O(log n), but every loaded task is still added to the indices under
+     * the lock. So for k loaded tasks (at most one chunk of the loader) other writers are blocked
+     * for O(k log n), by the inserts into the {@link #intervalIndex}.
+     *
+     * @param loadedTasks Next loaded tasks, in order.
+     * @param complete True if these are the last tasks.
+     */
+    public void appendLoadedTasks(List<Task> loadedTasks, final boolean complete) {
+        TaskTree loaded = TaskTree.of(loadedTasks);
+        TaskTree.Entry[] entries = new TaskTree.Entry[loaded.size()];
+        loaded.getEntries(entries);
+        final int fromPosition;
+        synchronized (tasksLock) {
+            fromPosition = tasks.size();
+            tasks = tasks.withAppended(loaded);
+            for(TaskTree.Entry entry : entries) taskIndex.put(entry);
+            for(Task task : loadedTasks) {
+                intervalIndex.add(task);
+                tagRowIndex.append(task.getTagId());
+            }
+        }
+        if(complete) loadComplete = true;
+
+        final int count = loaded.size();
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if(onTasksLoadedListener == null) return;
+                onTasksLoadedListener.onTasksAppended(fromPosition, count);
+                if(complete) onTasksLoadedListener.onLoadComplete();
+            }
+        });
+    }
+
+    /**
+     * Keeps just a window of tasks around the visible ones in memory (see {@link TaskWindow})
+     * instead of loading all of them. Called on the loader thread, instead of appending
+     * any tasks, when the list is too large. Loading is complete right away, the listener
+     * is notified on the main thread when the window is opened.
+     */
+    public void startPagedLoading() {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                taskWindow = dbHandler.openTaskWindow();
+                loadComplete = true;
+                if(onTasksLoadedListener != null) onTasksLoadedListener.onLoadComplete();
+            }
+        });
+    }
+
+    /**
+     * @return See {@link this#loadComplete}.
+     */
+    boolean isLoadComplete() {
+        return loadComplete;
+    }
+
+    /**
+     * Setter method for the listener.
+     * @param onTasksLoadedListener Custom listener. See {@link #onTasksLoadedListener}.
+     */
+    void setOnTasksLoadedListener(OnTasksLoadedListener onTasksLoadedListener) {
+        this.onTasksLoadedListener = onTasksLoadedListener;
+    }
+
+    /**
+     * Getter method for {@link this#taskWindow}.
+     * @return Paged view of the tasks or null if all tasks are loaded.
+     */
+    public TaskWindow getTaskWindow() {
+        return taskWindow;
+    }
+
+    /**
+     * @return Task with the given id or null if there is no such task. Constant time.
+     */
+    public Task getTask(int id) {
+        synchronized (tasksLock) {
+            return taskIndex.get(id);
+        }
+    }
+
+    /**
+     * Finds all tasks whose time range overlaps the given one (both inclusive), e.g. the tasks
+     * active at some moment or during some day. Takes O((k + 1) log n) time for k found tasks,
+     * see {@link TaskIntervalIndex}.
+     * When tasks are paged, nothing is found.
+     *
+     * @param from Start of the range in milliseconds.
+     * @param to End of the range in milliseconds.
+     * @return Found tasks, ordered by start time.
+     */
+    public TaskTree getTasksOverlapping(long from, long to) {
+        if(taskWindow != null) return TaskTree.EMPTY;
+        List<Task> found = new ArrayList<>();
+        synchronized (tasksLock) {
+            for(int id : intervalIndex.findOverlapping(from, to)) found.add(taskIndex.get(id));
+        }
+        return TaskTree.of(found);
+    }
+
+    /**
+     * Finds all tasks that have any of the given tags, by the union of the bitmaps of their rows
+     * (see {@link TagRowIndex}). When tasks are paged, nothing is found.
+     *
+     * @param tagIds Ids of the tags.
+     * @return Found tasks, in the list order.
+     */
+    public TaskTree getTasksWithAnyTag(int[] tagIds) {
+        if(taskWindow != null) return TaskTree.EMPTY;
+        List<Task> found = new ArrayList<>();
+        synchronized (tasksLock) {
+            TaskTree snapshot = tasks;
+            for(int row : tagRowIndex.getRowsWithAnyTag(tagIds)) found.add(snapshot.get(row));
+        }
+        return TaskTree.of(found);
+    }
+
+    /**
+     * Calls the visitor for every task with a tag in the rows before {@param endRow}.
+     * Rows of every tag are visited in ascending order. When tasks are paged, nothing is visited.
+     * See {@link TagRowIndex#visitRows(int, TagRowIndex.RowVisitor)}.
+     */
+    public void visitTagRows(int endRow, TagRowIndex.RowVisitor visitor) {
+        if(taskWindow != null) return;
+        synchronized (tasksLock) {
+            tagRowIndex.visitRows(endRow, visitor);
+        }
+    }
+
+    /**
+     * Searches titles and tags of the tasks for the words of the given text.
+     * Pending changes are written first, so the search sees all of them. Found tasks are
+     * resolved on the main thread, where the tasks are changed, so the results are up to date
+     * with all changes made before the listener is called. When tasks are paged, nothing is found.
+     * Used just when the text changes, see {@link #updateSearchResults(TaskTree, TaskChange)}.
+     *
+     * @param text Text typed by the user.
+     * @param listener Listener for the results. See {@link DatabaseHandler#searchTaskIds}.
+     */
+    public void searchTasks(String text, final OnSearchResultListener listener) {
+        if(taskWindow != null) {
+            listener.onSearchResult(TaskTree.EMPTY);
+            return;
+        }
+        operationLog.flush();
+        dbHandler.searchTaskIds(text, new DatabaseHandler.OnSearchFinishedListener() {
+            @Override
+            public void onSearchFinished(final List<Integer> ids) {
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onSearchResult(getTasksInListOrder(ids));
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @param ids Ids of the tasks, in any order. Ids of the removed tasks are skipped.
+     * @return Tasks with the given ids, ordered by their positions.
+     */
+    private TaskTree getTasksInListOrder(List<Integer> ids) {
+        // Position and index of every task in one long, so they are sorted without boxing
+        long[] keys = new long[ids.size()];
+        Task[] found = new Task[ids.size()];
+        int count = 0;
+        synchronized (tasksLock) {
+            for(int id : ids) {
+                TaskTree.Entry entry = taskIndex.getEntry(id);
+                if(entry == null) continue;
+                found[count] = entry.getTask();
+                keys[count] = (long) tasks.positionOf(entry) << 32 | count;
+                count++;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        List<Task> sorted = new ArrayList<>(count);
+        for(int idx = 0; idx < count; idx++) sorted.add(found[(int) keys[idx]]);
+        return TaskTree.of(sorted);
+    }
+
+    /**
+     * Updates the search results after the given change of the tasks, without searching again.
+     * Changed task gets its new data, removed task is removed and moved task is moved to keep
+     * the list order. Tasks aren't matched against the text again and inserted tasks aren't added,
+     * that happens with the next search.
+     *
+     * @param results Found tasks, in the list order. See {@link #searchTasks}.
+     * @param change Change of the tasks, already applied.
+     * @return Updated results, or the same ones if the change doesn't touch them.
+     */
+    TaskTree updateSearchResults(TaskTree results, TaskChange change) {
+        if(change.getType() == TaskChange.INSERTED) return results;
+        int id = change.getTask().getId();
+        int idx = 0;
+        while(idx < results.size() && results.get(idx).getId() != id) idx++;
+        if(idx == results.size()) return results;
+
+        switch (change.getType()) {
+            case TaskChange.CHANGED:
+                return results.withTask(idx, change.getTask());
+            case TaskChange.REMOVED:
+                return results.withRemoved(idx);
+            default:
+                // New place is before the first result that is after the moved task in the list
+                TaskTree others = results.withRemoved(idx);
+                int low = 0, high = others.size();
+                while(low < high) {
+                    int middle = (low + high) >>> 1;
+                    if(findPosition(others.get(middle).getId()) < change.getToPosition()) low = middle + 1;
+                    else high = middle;
+                }
+                return others.withInserted(low, change.getTask());
+        }
+    }
+
+    /**
+     * Finds the current position of the task with the given id, from its entry in the
+     * {@link #taskIndex}. Takes O(log n) time, see {@link TaskTree#positionOf(TaskTree.Entry)}.
+     * When tasks are paged, only the loaded tasks are searched.
+     *
+     * @param id Id of the task.
+     * @return Position of the task or -1 if there is no such task.
+     */
+    public int findPosition(int id) {
+        if(taskWindow != null) {
+            for(int position = taskWindow.getWindowStart(); position < taskWindow.getWindowEnd(); position++) {
+                Task task = taskWindow.peek(position);
+                if(task != null && task.getId() == id) return position;
+            }
+            return -1;
+        }
+        synchronized (tasksLock) {
+            TaskTree.Entry entry = taskIndex.getEntry(id);
+            return entry == null ? -1 : tasks.positionOf(entry);
+        }
+    }
+
+    /**
+     * Replaces the task with the same id as the given task.
+     * Only fields that are dirty in the new task are written to the DB.
+     * Nothing happens if the task has been removed in the meantime.
      * @param task New task that will replace old one.
      */
-    void updateTask(int position, Task task) {
-        this.tasks.set(position, task);
-        dbHandler.updateTask(task);
+    void updateTask(Task task) {
+        int position = findPosition(task.getId());
+        if(position < 0) return;
+        if(taskWindow != null) {
+            dbHandler.updateTask(task);
+            // Queued with its dirty fields, the loaded one is persisted as it is
+            task.clearDirtyFields();
+            taskWindow.set(position, task);
+            return;
+        }
+        applyChange(TaskChange.changed(position, tasks.get(position), task), true);
     }
 
     /**
      * Adds the {@param task} to the {@link AppData#tasks} list.
+     * When tasks are paged, it is added to the end of the stored list, whose size
+     * is counted by the DB, see {@link DatabaseHandler#appendStoredTask(Task)}.
      */
     public void addTask(Task task) {
-        this.tasks.add(task);
-        task.setPosition(getTasks().size()-1);
-        dbHandler.addTask(task);
+        if(taskWindow != null) {
+            dbHandler.appendStoredTask(task);
+            taskWindow.invalidate();
+            return;
+        }
+        // Tasks are added just by the main thread, after the loading is complete
+        task.setPosition(tasks.size());
+        applyChange(TaskChange.inserted(task.getPosition(), task), true);
+    }
+
+    /**
+     * Removes task with the given id from the list.
+     * Nothing happens if the task has been removed already.
+     * When tasks are paged, it is removed by id and the gap is closed from its stored position,
+     * see {@link DatabaseHandler#removeStoredTask(int)}.
+     * @param id Id of the task that need to be removed.
+     */
+    void removeTask(int id) {
+        if(taskWindow != null) {
+            dbHandler.removeStoredTask(id);
+            taskWindow.invalidate();
+            return;
+        }
+        int position = findPosition(id);
+        if(position < 0) return;
+        applyChange(TaskChange.removed(position, tasks.get(position)), true);
+    }
+
+    /**
+     * Reverts the last change of the tasks.
+     * @return True if there was a change to undo.
+     */
+    boolean undo() {
+        TaskChange change = operationLog.undo();
+        if(change == null) return false;
+        applyChange(change, false);
+        return true;
+    }
+
+    /**
+     * Applies again the last undone change of the tasks.
+     * @return True if there was a change to redo.
+     */
+    boolean redo() {
+        TaskChange change = operationLog.redo();
+        if(change == null) return false;
+        applyChange(change, false);
+        return true;
+    }
+
+    /**
+     * Writes all changes that are waiting in the {@link #operationLog} to the DB.
+     */
+    void flushChanges() {
+        operationLog.flush();
+    }
+
+    /**
+     * Applies the change to the tasks list, publishes the new snapshot,
+     * passes the change to the {@link #operationLog} to be written and notifies the listener.
+     * Positions in the change are positions in the current snapshot.
+     *
+     * @param change Change of the tasks.
+     * @param userChange True if the change is made by the user and can be undone,
+     *                   false if it is an undo or redo itself.
+     */
+    private void applyChange(TaskChange change, boolean userChange) {
+        Task task = change.getTask();
+        TaskTree snapshot;
+        synchronized (tasksLock) {
+            switch (change.getType()) {
+                case TaskChange.INSERTED:
+                    tasks = tasks.withInserted(change.getToPosition(), task);
+                    taskIndex.put(tasks.getEntry(change.getToPosition()));
+                    intervalIndex.add(task);
+                    tagRowIndex.insert(change.getToPosition(), task.getTagId());
+                    break;
+                case TaskChange.REMOVED:
+                    tasks = tasks.withRemoved(change.getFromPosition());
+                    taskIndex.remove(task.getId());
+                    intervalIndex.remove(task);
+                    tagRowIndex.remove(change.getFromPosition());
+                    break;
+                case TaskChange.MOVED:
+                    tasks = tasks.withMoved(change.getFromPosition(), change.getToPosition());
+                    tagRowIndex.move(change.getFromPosition(), change.getToPosition(), task.getTagId());
+                    break;
+                case TaskChange.CHANGED:
+                    // Task keeps its entry, so the index is up to date
+                    tasks = tasks.withTask(change.getFromPosition(), task);
+                    Task previousTask = change.getPreviousTask();
+                    if(previousTask.getStart() != task.getStart() || previousTask.getEnd() != task.getEnd()) {
+                        intervalIndex.remove(previousTask);
+                        intervalIndex.add(task);
+                    }
+                    tagRowIndex.setTag(change.getFromPosition(), previousTask.getTagId(), task.getTagId());
+                    break;
+            }
+            snapshot = tasks;
+        }
+        if(userChange) operationLog.record(change, snapshot);
+        else operationLog.persist(change, snapshot);
+        notifyTasksChanged(change);
+    }
+
+    /**
+     * Calls the listener if it's set.
+     */
+    private void notifyTasksChanged(TaskChange change) {
+        if(onTasksChangedListener != null) onTasksChangedListener.onTasksChanged(change);
     }
 
     /**
-     * Removes task from the list.
-     * @param position Index of the task that need to be removed.
+     * Setter method for the listener.
+     * @param onTasksChangedListener Custom listener. See {@link #onTasksChangedListener}.
      */
-    void removeTask(int position) {
-        dbHandler.removeTask(tasks.get(position));
-        this.tasks.remove(position);
+    void setOnTasksChangedListener(OnTasksChangedListener onTasksChangedListener) {
+        this.onTasksChangedListener = onTasksChangedListener;
     }
 
 }
@@ -0,0 +1,298 @@
+package com.invariant.android.tasks;
+
+import androidx.annotation.VisibleForTesting;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats dates and times of the tasks. Thread safe.
+ *
+ * Every thread has its own formatters (one per pattern), created once. Formatted strings are
+ * cached by the unit they show: dates by the epoch day and date-times by the epoch minute
+ * (both in local time), so all tasks of the same day or minute share one string and formatting
+ * them is a cache lookup. Caches are bounded, the least recently used strings are evicted.
+ *
+ * Strings depend on the locale and the time zone, so everything is dropped when one
+ * of them changes. See {@link #invalidate()}.
+ */
+class DateFormatter {
+
+    /**
+     * Milliseconds in a minute and in a day.
+     */
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+    /**
+     * Maximum number of cached strings of every pattern.
+     */
+    private static final int CACHE_SIZE = 4096;
+
+    /**
+     * One format and the cache of its strings.
+     */
+    private static class Format {
+        /**
+         * Index of the format, its formatter in every {@link Formatters}.
+         */
+        final int index;
+        final String pattern;
+        /**
+         * Smallest unit of time the pattern shows, in milliseconds. Times with the same
+         * local unit have the same string.
+         */
+        final long unit;
+        /**
+         * Strings by the number of the unit since the epoch. Guarded by itself.
+         */
+        final LongLruCache cache;
+
+        Format(int index, String pattern, long unit) {
+            this.index = index;
+            this.pattern = pattern;
+            this.unit = unit;
+            this.cache = new LongLruCache(CACHE_SIZE);
+        }
+    }
+
+    /**
+     * Date, as shown in the list.
+     */
+    private static final Format DATE = new Format(0, "dd/MM/yyyy", DAY);
+    /**
+     * Date and time in two lines, as shown in the edit dialog.
+     */
+    private static final Format DATE_TIME = new Format(1, "dd/MM/yyyy\nHH:mm", MINUTE);
+    private static final Format[] FORMATS = {DATE, DATE_TIME};
+
+    /**
+     * Locale and time zone of the shown strings, with the number of their generation.
+     * Published as a whole (see {@link #settings}), so the generation never comes with
+     * the time zone of another one.
+     */
+    private static class Settings {
+        /**
+         * Incremented on every {@link #invalidate()}. Formatters and strings of the older
+         * generations aren't used.
+         */
+        final int generation;
+        final Locale locale;
+        final TimeZone timeZone;
+
+        Settings(int generation) {
+            this.generation = generation;
+            this.locale = Locale.getDefault();
+            this.timeZone = TimeZone.getDefault();
+        }
+    }
+
+    /**
+     * Formatters of one thread, for the locale and the time zone of one {@link Settings#generation}.
+     */
+    private static class Formatters {
+        int generation = -1;
+        SimpleDateFormat[] formatters = new SimpleDateFormat[FORMATS.length];
+        Date date = new Date();
+
+        void reset(Settings settings) {
+            this.generation = settings.generation;
+            for(Format format : FORMATS) {
+                SimpleDateFormat formatter = new SimpleDateFormat(format.pattern, settings.locale);
+                formatter.setTimeZone(settings.timeZone);
+                formatters[format.index] = formatter;
+            }
+        }
+    }
+
+    private static final ThreadLocal<Formatters> FORMATTERS = new ThreadLocal<Formatters>() {
+        @Override
+        protected Formatters initialValue() {
+            return new Formatters();
+        }
+    };
+
+    /**
+     * Current settings. Replaced by a new object on every {@link #invalidate()}, with a single write.
+     */
+    private static volatile Settings settings = new Settings(0);
+
+    /**
+     * @param milliSeconds Date in milliseconds.
+     * @return Date, e.g. "20/07/2020".
+     */
+    static String formatDate(long milliSeconds) {
+        return format(DATE, milliSeconds);
+    }
+
+    /**
+     * @param milliSeconds Date in milliseconds.
+     * @return Date and the time in the next line, e.g. "20/07/2020\n14:05".
+     */
+    static String formatDateTime(long milliSeconds) {
+        return format(DATE_TIME, milliSeconds);
+    }
+
+    /**
+     * Drops all formatters and strings. Called when the locale or the time zone changes.
+     */
+    static synchronized void invalidate() {
+        settings = new Settings(settings.generation + 1);
+        for(Format format : FORMATS) {
+            synchronized (format.cache) {
+                format.cache.clear();
+            }
+        }
+    }
+
+    /**
+     * @return Cached string of the time or the newly formatted one, which is cached then.
+     */
+    private static String format(Format format, long milliSeconds) {
+        Settings current = settings;
+        long local = milliSeconds + current.timeZone.getOffset(milliSeconds);
+        // Floor division, times before the epoch are negative
+        long key = (local >= 0 ? local : local - format.unit + 1) / format.unit;
+
+        String string;
+        synchronized (format.cache) {
+            string = format.cache.get(key);
+        }
+        if(string != null) return string;
+
+        Formatters formatters = FORMATTERS.get();
+        if(formatters.generation != current.generation) formatters.reset(current);
+        formatters.date.setTime(milliSeconds);
+        string = formatters.formatters[format.index].format(formatters.date);
+
+        synchronized (format.cache) {
+            // String of the old locale or time zone isn't cached after the invalidation
+            if(current == settings) format.cache.put(key, string);
+        }
+        return string;
+    }
+
+    /**
+     * Map of the long keys to the strings, with at most the given number of entries.
+     * When it's full, the least recently used entry is replaced. Entries are in arrays:
+     * hash chains for the lookup and a doubly linked list in the order of use,
+     * so nothing is allocated. Not thread safe.
+     */
+    @VisibleForTesting
+    static class LongLruCache {
+        private static final int NONE = -1;
+
+        private final long[] keys;
+        private final String[] values;
+        /**
+         * Neighbours of every entry in the order of use, from the {@link #head} (most recently used)
+         * to the {@link #tail} (least recently used).
+         */
+        private final int[] newer, older;
+        private int head = NONE, tail = NONE;
+        /**
+         * First entry of every hash bucket and the next entry in the same bucket.
+         */
+        private final int[] buckets;
+        private final int[] nextInBucket;
+        private int size = 0;
+
+        LongLruCache(int capacity) {
+            keys = new long[capacity];
+            values = new String[capacity];
+            newer = new int[capacity];
+            older = new int[capacity];
+            nextInBucket = new int[capacity];
+            buckets = new int[Integer.highestOneBit(capacity) * 4];
+            Arrays.fill(buckets, NONE);
+        }
+
+        /**
+         * @return String of the key or null if it isn't cached. Found entry becomes the most recently used.
+         */
+        String get(long key) {
+            int entry = find(key);
+            if(entry == NONE) return null;
+            moveToHead(entry);
+            return values[entry];
+        }
+
+        /**
+         * Adds the string as the most recently used one, replacing the least recently used one if full.
+         */
+        void put(long key, String value) {
+            int entry = find(key);
+            if(entry == NONE) {
+                if(size < keys.length) {
+                    entry = size++;
+                } else {
+                    entry = tail;
+                    unlink(entry);
+                    removeFromBucket(entry);
+                }
+                keys[entry] = key;
+                int bucket = bucket(key);
+                nextInBucket[entry] = buckets[bucket];
+                buckets[bucket] = entry;
+                linkHead(entry);
+            } else {
+                moveToHead(entry);
+            }
+            values[entry] = value;
+        }
+
+        void clear() {
+            Arrays.fill(buckets, NONE);
+            Arrays.fill(values, null);
+            head = tail = NONE;
+            size = 0;
+        }
+
+        private int find(long key) {
+            for(int entry = buckets[bucket(key)]; entry != NONE; entry = nextInBucket[entry]) {
+                if(keys[entry] == key) return entry;
+            }
+            return NONE;
+        }
+
+        private int bucket(long key) {
+            int hash = (int) (key ^ (key >>> 32)) * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & (buckets.length - 1);
+        }
+
+        private void removeFromBucket(int entry) {
+            int bucket = bucket(keys[entry]);
+            if(buckets[bucket] == entry) {
+                buckets[bucket] = nextInBucket[entry];
+                return;
+            }
+            int previous = buckets[bucket];
+            while(nextInBucket[previous] != entry) previous = nextInBucket[previous];
+            nextInBucket[previous] = nextInBucket[entry];
+        }
+
+        private void moveToHead(int entry) {
+            if(entry == head) return;
+            unlink(entry);
+            linkHead(entry);
+        }
+
+        private void linkHead(int entry) {
+            newer[entry] = NONE;
+            older[entry] = head;
+            if(head != NONE) newer[head] = entry;
+            head = entry;
+            if(tail == NONE) tail = entry;
+        }
+
+        private void unlink(int entry) {
+            if(newer[entry] != NONE) older[newer[entry]] = older[entry];
+            else head = older[entry];
+            if(older[entry] != NONE) newer[older[entry]] = newer[entry];
+            else tail = newer[entry];
+        }
+    }
+
+}
@@ -15,6 +15,8 @@ import android.widget.TextView;
 import android.widget.TimePicker;
 import android.widget.Toast;
 
+import com.invariant.android.tasks.database.TagDictionary;
+
 import java.util.Calendar;
 
 
@@ -23,11 +25,6 @@ import java.util.Calendar;
  */
 class EditTaskData {
 
-    /**
-     * Constant for date time formatting.
-     */
-    private static final String DATE_TIME_FORMAT = "dd/MM/yyyy\nHH:mm";
-
     /**
      * Constants for the DateTime dialog. Tells if the
      * dialog is changing task start or task end time.
@@ -45,6 +42,15 @@ class EditTaskData {
      *
      */
     private Task task;
+    /**
+     * Name of the tag of the edited task, from the {@link TagDictionary}.
+     */
+    private String tagName;
+    /**
+     * Tag text typed in the dialog. It is read (and resolved to the tag id
+     * of the {@link #task}) only on save, so typing creates no strings.
+     */
+    private CharSequence typedTag;
 
     /**
      * Main dialog view for context.
@@ -88,6 +94,8 @@ class EditTaskData {
     EditTaskData(Activity context, Task task, boolean addingNewTask) {
         this.context = context;
         this.task = new Task(task);
+        this.tagName = getTagDictionary().getName(task.getTagId());
+        this.typedTag = tagName;
         this.addingNewTask = addingNewTask;
     }
 
@@ -118,14 +126,14 @@ class EditTaskData {
 
         // On tag text change, save the tag
         final EditText txtTag = dialogView.findViewById(R.id.edit_text_task_tag);
-        txtTag.setText(task.getTag());
+        txtTag.setText(tagName);
         txtTag.addTextChangedListener(new TextWatcher() {
             @Override
             public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
 
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
-                task.setTag(s.toString());
+                typedTag = s;
             }
 
             @Override
@@ -176,9 +184,8 @@ class EditTaskData {
                 btnPositive.setOnClickListener(new View.OnClickListener() {
                     @Override
                     public void onClick(View view) {
-                        // Trim title and tag strings
+                        // Trim title string
                         task.setTitle(task.getTitle().trim());
-                        task.setTag(task.getTag().trim());
 
                         if(!task.isValid()) {
                             // Show error toast
@@ -188,6 +195,12 @@ class EditTaskData {
                             return;
                         }
 
+                        // Tag is looked up (or created) only when the task is really saved
+                        // and only if it is changed
+                        if(!tagName.contentEquals(typedTag)) {
+                            task.setTagId(getTagDictionary().getId(typedTag.toString().trim()));
+                        }
+
                         // Close the dialog
                         alertDialog.dismiss();
                         // Call listener
@@ -291,10 +304,17 @@ class EditTaskData {
      * Refreshes (sets) all dateTime TestViews in the dialog
      */
     private void refreshDatesTimes() {
-        ((TextView) dialogView.findViewById(R.id.txt_start_value)).setText(DateTimeConverter
-                .getDateTime(task.getStart(), DATE_TIME_FORMAT));
-        ((TextView) dialogView.findViewById(R.id.txt_end_value)).setText(DateTimeConverter
-                .getDateTime(task.getEnd(), DATE_TIME_FORMAT));
+        ((TextView) dialogView.findViewById(R.id.txt_start_value)).setText(DateFormatter
+                .formatDateTime(task.getStart()));
+        ((TextView) dialogView.findViewById(R.id.txt_end_value)).setText(DateFormatter
+                .formatDateTime(task.getEnd()));
+    }
+
+    /**
+     * @return Global dictionary of the tag names.
+     */
+    private TagDictionary getTagDictionary() {
+        return ((AppData) context.getApplication()).getTagDictionary();
     }
 
     /**
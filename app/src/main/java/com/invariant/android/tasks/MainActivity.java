@@ -1,20 +1,25 @@
 package com.invariant.android.tasks;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
+import androidx.recyclerview.widget.ItemTouchHelper;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.View;
-import android.widget.AbsListView;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import com.invariant.android.tasks.database.TaskWindow;
 import com.invariant.android.tasks.dragAndDrop.DragAndDropHandler;
-import com.invariant.android.tasks.tagLines.NonScrollableScrollView;
-import com.invariant.android.tasks.tagLines.TagLinesView;
+import com.invariant.android.tasks.tagLines.TagLinesDecoration;
 
-import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -24,25 +29,36 @@ public class MainActivity extends AppCompatActivity {
     private AppData appData;
 
     /**
-     * ListView of all tasks.
+     * RecyclerView of all tasks.
      */
-    private ListView lvTasks;
+    private RecyclerView rvTasks;
     /**
-     * Adapter for {@link #lvTasks}
+     * Layout manager of {@link #rvTasks}, for finding the visible rows.
+     */
+    private LinearLayoutManager layoutManager;
+    /**
+     * Adapter for {@link #rvTasks}
      */
     private TasksAdapter tasksAdapter;
 
     /**
-     * Custom view for drawing lines between tasks with the same tag.
+     * Decoration of {@link #rvTasks} that draws lines between tasks with the same tag.
      */
-    private TagLinesView tagLinesView;
+    private TagLinesDecoration tagLinesDecoration;
 
     /**
-     * Custom ScrollView for containing {@link #tagLinesView}.
-     * Disables all click and touch callbacks and passes
-     * them to the {@link #lvTasks} that is below it.
+     * Id of the chosen time filter menu item. See {@link #setTimeFilter(int)}.
+     */
+    private int timeFilterId = R.id.filter_all;
+    /**
+     * Ids of the tags chosen in the tag filter, or null if tasks aren't filtered by tags.
+     * Tag filter is applied instead of the time filter. See {@link #openTagFilter()}.
      */
-    private NonScrollableScrollView tagLinesRootView;
+    private int[] tagFilterIds = null;
+    /**
+     * Text that is searched for, or null if tasks aren't searched.
+     */
+    private String searchText = null;
 
 
     /**
@@ -55,76 +71,254 @@ public class MainActivity extends AppCompatActivity {
         setContentView(R.layout.activity_main);
 
         // Initialize important views
-        lvTasks = findViewById(R.id.tasks_list_view);
-        tagLinesView = findViewById(R.id.tag_lines_view);
+        rvTasks = findViewById(R.id.tasks_list_view);
         appData = (AppData) getApplication();
 
-        tagLinesRootView = findViewById(R.id.tag_lines_root_view);
-
-        // This list of tasks is now bound to the global application tasks list.
-        // If anything in that list changes, it changes everywhere in the app.
-        ArrayList<Task> tasks = ((AppData) getApplication()).getTasks();
-
         // Save screen dimensions for future calculations
         appData.setScreenDimensions(this);
 
-        // Setup tasks ListView
-        tasksAdapter = new TasksAdapter(this, tasks,
+        // Setup tasks RecyclerView
+        // Adapter shows the snapshot of the global application tasks list.
+        // It takes the latest one every time it's notified about the change.
+        tasksAdapter = new TasksAdapter(this,
                 Math.max(appData.getScreenWidth(), appData.getScreenHeight()) / 8);
-        lvTasks.setAdapter(tasksAdapter);
+        layoutManager = new LinearLayoutManager(this);
+        rvTasks.setLayoutManager(layoutManager);
+        // All rows have the same height, so the changes of the tasks don't resize the list
+        rvTasks.setHasFixedSize(true);
+        rvTasks.setAdapter(tasksAdapter);
+        // Lines are drawn over the visible rows and scroll with them
+        tagLinesDecoration = new TagLinesDecoration(rvTasks);
+        rvTasks.addItemDecoration(tagLinesDecoration);
+
+        // Lines follow the shown tasks. Single changes are applied to them when possible
+        tasksAdapter.setOnShownTasksChangedListener(new TasksAdapter.OnShownTasksChangedListener() {
+            @Override
+            public void onShownTasksChanged(TaskChange change) {
+                // Positions of the change are positions in all tasks, not in the filtered ones
+                if(change != null && !tasksAdapter.isFiltered()) tagLinesDecoration.onTasksChanged(change, tasksAdapter);
+                // Lines are calculated for all tasks, so not for every loaded page
+                else if(appData.isLoadComplete()) tagLinesDecoration.refresh(tasksAdapter);
+            }
+        });
+
+        // Tasks can't be reordered until all of them are loaded
+        if(appData.isLoadComplete()) enableDragAndDrop();
+        appData.setOnTasksLoadedListener(new AppData.OnTasksLoadedListener() {
+            @Override
+            public void onTasksAppended(int fromPosition, int count) {
+                tasksAdapter.onTasksAppended(fromPosition, count);
+                // Lines are calculated for all tasks, so just for the first screen and in the end
+                if(fromPosition == 0) tagLinesDecoration.refresh(tasksAdapter);
+            }
+
+            @Override
+            public void onLoadComplete() {
+                // Large lists are paged instead of loaded, rows come from the window from now on
+                if(appData.getTaskWindow() != null) {
+                    followTaskWindow();
+                    tasksAdapter.refresh();
+                }
+                tagLinesDecoration.refresh(tasksAdapter);
+                enableDragAndDrop();
+            }
+        });
+
+        // Update just what has changed. Views are updated here for every change of the tasks
+        appData.setOnTasksChangedListener(new AppData.OnTasksChangedListener() {
+            @Override
+            public void onTasksChanged(TaskChange change) {
+                // Search results are updated by the adapter, search runs again just when the text changes
+                tasksAdapter.onTasksChanged(change);
+            }
+        });
 
-        DragAndDropHandler dragAndDropHandler = new DragAndDropHandler(
-                this, lvTasks, tasksAdapter, tagLinesView);
-        lvTasks.setOnItemLongClickListener(dragAndDropHandler);
-        lvTasks.setOnDragListener(dragAndDropHandler);
         // On click open task edit dialog
-        lvTasks.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        tasksAdapter.setOnTaskClickListener(new TasksAdapter.OnTaskClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, final int position, long id) {
+            public void onTaskClick(final int position) {
+                // Task is not loaded yet
+                if(tasksAdapter.getItem(position) == null) return;
                 EditTaskData editTaskData = new EditTaskData(MainActivity.this,
                         tasksAdapter.getItem(position), false);
                 editTaskData.setOnFinishListener(new EditTaskData.OnFinishListener() {
                     @Override
                     public void onSuccessfulSave(Task task) {
-                        ((AppData) getApplication()).updateTask(position, task);
-                        tasksAdapter.notifyDataSetChanged();
-
-                        tagLinesView.refresh(tasksAdapter);
+                        // Task is found by id, the list could have changed while editing
+                        ((AppData) getApplication()).updateTask(task);
                     }
                     @Override
                     public void onDelete(Task task) {
-                        ((AppData) getApplication()).removeTask(position);
-                        tasksAdapter.notifyDataSetChanged();
-
-                        tagLinesView.refresh(tasksAdapter);
+                        if(!isLoadComplete()) return;
+                        ((AppData) getApplication()).removeTask(task.getId());
                     }
                 });
                 editTaskData.openDialog();
             }
         });
 
-        // Scroll lines along with tasks ListView
-        lvTasks.setOnScrollListener(new AbsListView.OnScrollListener() {
+        // Follow the visible rows of the tasks RecyclerView
+        rvTasks.addOnScrollListener(new RecyclerView.OnScrollListener() {
             @Override
-            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                int firstVisibleItem = layoutManager.findFirstVisibleItemPosition();
+                int lastVisibleItem = layoutManager.findLastVisibleItemPosition();
+                if(firstVisibleItem == RecyclerView.NO_POSITION) return;
+
+                // Keep loaded just tasks around the visible ones
+                if(appData.getTaskWindow() != null) {
+                    appData.getTaskWindow().setVisibleRange(firstVisibleItem, lastVisibleItem + 1);
+                }
+                // Prepare the rows in the direction of the scroll
+                tasksAdapter.onScrolled(firstVisibleItem, lastVisibleItem, dy);
+            }
+        });
+
+        followTaskWindow();
+
+        // Calculate tag lines
+        tagLinesDecoration.refresh(tasksAdapter);
+    }
+
+    /**
+     * Writes all pending changes, so nothing is lost if the app is killed in the background.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        appData.flushChanges();
+    }
+
+    /**
+     * Clears listeners set to the global application object.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        appData.setOnTasksLoadedListener(null);
+        appData.setOnTasksChangedListener(null);
+        // Window lives as long as the application, it mustn't keep this activity
+        if(appData.getTaskWindow() != null) appData.getTaskWindow().setOnWindowChangedListener(null);
+    }
+
+    /**
+     * Refreshes the list when a new page of tasks is loaded, if tasks are paged.
+     */
+    private void followTaskWindow() {
+        if(appData.getTaskWindow() == null) return;
+        appData.getTaskWindow().setOnWindowChangedListener(new TaskWindow.OnWindowChangedListener() {
+            @Override
+            public void onWindowChanged() {
+                tasksAdapter.refresh();
+            }
+        });
+    }
+
+    /**
+     * Enables drag and drop of the tasks.
+     */
+    private void enableDragAndDrop() {
+        new ItemTouchHelper(new DragAndDropHandler(tasksAdapter)).attachToRecyclerView(rvTasks);
+    }
+
+    /**
+     * Shows just the tasks whose time overlaps the chosen range, or all tasks.
+     * @param filterId Id of the chosen filter menu item.
+     */
+    private void setTimeFilter(int filterId) {
+        if(filterId == R.id.filter_all) {
+            tasksAdapter.clearFilter();
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(now);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long from, to;
+        if(filterId == R.id.filter_active_now) {
+            from = to = now;
+        } else if(filterId == R.id.filter_today) {
+            from = calendar.getTimeInMillis();
+            calendar.add(Calendar.DAY_OF_YEAR, 1);
+            to = calendar.getTimeInMillis() - 1;
+        } else {
+            calendar.set(Calendar.DAY_OF_WEEK, calendar.getFirstDayOfWeek());
+            from = calendar.getTimeInMillis();
+            calendar.add(Calendar.WEEK_OF_YEAR, 1);
+            to = calendar.getTimeInMillis() - 1;
+        }
+        tasksAdapter.setTimeFilter(from, to);
+    }
+
+    /**
+     * Shows the tasks chosen by the tag filter if it is set, otherwise by the time filter.
+     */
+    private void showFilteredTasks() {
+        if(tagFilterIds == null) {
+            setTimeFilter(timeFilterId);
+            return;
+        }
+        tasksAdapter.setTagFilter(tagFilterIds);
+    }
+
+    /**
+     * Opens the dialog for choosing tags. Tasks that have any of the chosen tags are shown,
+     * as every task has just one tag. If no tag is chosen, the time filter is applied again.
+     */
+    private void openTagFilter() {
+        final List<Tag> tags = appData.getTagDictionary().getTags();
+        CharSequence[] names = new CharSequence[tags.size()];
+        final boolean[] checked = new boolean[tags.size()];
+        for(int i = 0; i < tags.size(); i++) {
+            names[i] = tags.get(i).getName();
+            if(tagFilterIds == null) continue;
+            for(int tagId : tagFilterIds) {
+                if(tagId == tags.get(i).getId()) checked[i] = true;
             }
+        }
 
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(getResources().getString(R.string.tag_filter));
+        builder.setMultiChoiceItems(names, checked, new DialogInterface.OnMultiChoiceClickListener() {
+            @Override
+            public void onClick(DialogInterface dialog, int which, boolean isChecked) {
+                checked[which] = isChecked;
+            }
+        });
+        builder.setNegativeButton(getResources().getString(R.string.cancel), null);
+        builder.setPositiveButton(getResources().getString(R.string.set),
+                new DialogInterface.OnClickListener() {
             @Override
-            public void onScroll(AbsListView view, int firstVisibleItem,
-                                 int visibleItemCount, int totalItemCount) {
-                try {
-                    View c = lvTasks.getChildAt(0);
-                    int scrollY = -c.getTop() + lvTasks.getFirstVisiblePosition() * c.getHeight();
-
-                    tagLinesRootView.scrollTo(0, scrollY);
-                } catch (Exception ignored) {
-                    // Exception throw on start when lvTasks is still null
+            public void onClick(DialogInterface dialog, int which) {
+                int count = 0;
+                for(boolean isChecked : checked) if(isChecked) count++;
+                int[] tagIds = new int[count];
+                count = 0;
+                for(int i = 0; i < tags.size(); i++) {
+                    if(checked[i]) tagIds[count++] = tags.get(i).getId();
                 }
+                tagFilterIds = count == 0 ? null : tagIds;
+                // While searching, the filter is applied when the search is closed
+                if(searchText == null) showFilteredTasks();
             }
         });
 
-        // Setup custom tag lines view
-        tagLinesView.refresh(tasksAdapter);
+        builder.show();
+    }
+
+    /**
+     * Tasks can't be added or removed while they are loading, as new tasks are added to the end.
+     * @return true if all tasks are loaded, otherwise false and the user is notified.
+     */
+    private boolean isLoadComplete() {
+        if(appData.isLoadComplete()) return true;
+        Toast.makeText(this, getResources().getString(R.string.error_tasks_loading),
+                Toast.LENGTH_SHORT).show();
+        return false;
     }
 
     /**
@@ -133,28 +327,84 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_item_main, menu);
+
+        // Search as the user types, all tasks (in the chosen time range) are shown again when search is closed
+        MenuItem searchItem = menu.findItem(R.id.search);
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getResources().getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                if(newText.trim().isEmpty()) stopSearch();
+                else search(newText);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                stopSearch();
+                return true;
+            }
+        });
         return super.onCreateOptionsMenu(menu);
     }
 
+    /**
+     * Searches the tasks and shows the found ones. See {@link AppData#searchTasks}.
+     * @param text Text typed by the user.
+     */
+    private void search(String text) {
+        searchText = text;
+        appData.searchTasks(text, new AppData.OnSearchResultListener() {
+            @Override
+            public void onSearchResult(TaskTree results) {
+                // Results of the older search can come after the search is closed
+                if(searchText == null) return;
+                tasksAdapter.setSearchResults(results);
+            }
+        });
+    }
+
+    /**
+     * Shows the filtered tasks again, instead of the found ones. See {@link #showFilteredTasks()}.
+     */
+    private void stopSearch() {
+        if(searchText == null) return;
+        searchText = null;
+        showFilteredTasks();
+    }
+
     /**
      * Handles on actionBar menu item click.
      *
      * R.id.add_task Opens {@link EditTaskData} to add a new task
+     * R.id.filter_* Shows just the tasks in the chosen time range. See {@link #setTimeFilter(int)}
+     * R.id.tag_filter Shows just the tasks with the chosen tags. See {@link #openTagFilter()}
+     * R.id.undo Reverts the last change of the tasks
+     * R.id.redo Applies again the last undone change
      */
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
-        //noinspection SwitchStatementWithTooFewBranches
         switch (item.getItemId()) {
             case R.id.add_task:
+                if(!isLoadComplete()) return true;
                 EditTaskData editTaskData = new EditTaskData(this,
                         new Task(appData.getNextId()), true);
                 editTaskData.setOnFinishListener(new EditTaskData.OnFinishListener() {
                     @Override
                     public void onSuccessfulSave(Task task) {
                         ((AppData) getApplication()).addTask(task);
-                        tasksAdapter.notifyDataSetChanged();
-
-                        tagLinesView.refresh(tasksAdapter);
                     }
 
                     @Override
@@ -164,6 +414,26 @@ public class MainActivity extends AppCompatActivity {
                 });
                 editTaskData.openDialog();
                 return true;
+            case R.id.filter_all:
+            case R.id.filter_active_now:
+            case R.id.filter_today:
+            case R.id.filter_this_week:
+                item.setChecked(true);
+                timeFilterId = item.getItemId();
+                // Choosing the time range clears the tag filter
+                tagFilterIds = null;
+                // While searching, the time filter is applied when the search is closed
+                if(searchText == null) setTimeFilter(timeFilterId);
+                return true;
+            case R.id.tag_filter:
+                openTagFilter();
+                return true;
+            case R.id.undo:
+                if(isLoadComplete()) appData.undo();
+                return true;
+            case R.id.redo:
+                if(isLoadComplete()) appData.redo();
+                return true;
             default:
                 return super.onOptionsItemSelected(item);
         }
@@ -0,0 +1,268 @@
+package com.invariant.android.tasks;
+
+import android.os.Handler;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.invariant.android.tasks.database.DatabaseHandler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Log of all changes of the tasks list. Keeps the history for undo and redo,
+ * and persists changes in delayed batches.
+ *
+ * Changes are written to the {@link DatabaseHandler} only after {@link #FLUSH_DELAY}
+ * without new changes (or on {@link #flush()}). Until then, consecutive changes of the same
+ * task are merged into their net effect: a drag sequence becomes one move, and a change
+ * that is undone right away cancels out and never reaches the DB.
+ *
+ * Used only on the main thread.
+ */
+class OperationLog {
+
+    /**
+     * Time in milliseconds after the last change when pending changes are written.
+     */
+    private static final long FLUSH_DELAY = 3000;
+    /**
+     * Number of pending changes after which they are written right away.
+     */
+    private static final int MAX_PENDING = 256;
+    /**
+     * Number of changes that can be undone.
+     */
+    private static final int MAX_HISTORY = 100;
+
+    /**
+     * Change that is applied to the tasks list, but not yet written.
+     */
+    private static class Pending {
+        TaskChange change;
+        /**
+         * Tasks list right after the change. Used to rank the task when it is written.
+         */
+        TaskTree snapshot;
+
+        Pending(TaskChange change, TaskTree snapshot) {
+            this.change = change;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Handler for all the db work.
+     */
+    private DatabaseHandler dbHandler;
+    /**
+     * Handler of the main thread, for delaying the flush.
+     */
+    private Handler handler;
+
+    /**
+     * Changes that can be undone (the last one on the top) and the undone changes that can be redone.
+     */
+    private ArrayDeque<TaskChange> undoStack;
+    private ArrayDeque<TaskChange> redoStack;
+    /**
+     * Changes waiting for the flush, in order.
+     */
+    private ArrayList<Pending> pending;
+
+    /**
+     * Constructor. Sets everything up.
+     * @param dbHandler See {@link #dbHandler}
+     * @param handler See {@link #handler}
+     */
+    OperationLog(DatabaseHandler dbHandler, Handler handler) {
+        this.dbHandler = dbHandler;
+        this.handler = handler;
+        undoStack = new ArrayDeque<>();
+        redoStack = new ArrayDeque<>();
+        pending = new ArrayList<>();
+    }
+
+    /**
+     * Records the change made by the user, after it is applied. It can be undone and
+     * it is written with the next flush. Redo history is cleared.
+     * Consecutive moves of the same task are one change in the history, so the whole
+     * drag is undone at once.
+     * @param snapshot Tasks list right after the change.
+     */
+    void record(TaskChange change, TaskTree snapshot) {
+        redoStack.clear();
+        TaskChange last = undoStack.peek();
+        if(last != null && last.getType() == TaskChange.MOVED && change.getType() == TaskChange.MOVED
+                && last.getTask().getId() == change.getTask().getId()) {
+            undoStack.pop();
+            // Task moved back where it was is not a change
+            if(last.getFromPosition() != change.getToPosition()) {
+                undoStack.push(TaskChange.moved(last.getFromPosition(), change.getToPosition(), change.getTask()));
+            }
+        } else {
+            undoStack.push(change);
+            if(undoStack.size() > MAX_HISTORY) undoStack.removeLast();
+        }
+        persist(change, snapshot);
+    }
+
+    /**
+     * Takes the last change from the undo history.
+     * @return Change that reverts it (to apply and then {@link #persist(TaskChange, TaskTree)})
+     *         or null if there is nothing to undo.
+     */
+    TaskChange undo() {
+        TaskChange change = undoStack.poll();
+        if(change == null) return null;
+        redoStack.push(change);
+        return change.inverted();
+    }
+
+    /**
+     * Takes the last undone change.
+     * @return Change to apply again (and then {@link #persist(TaskChange, TaskTree)})
+     *         or null if there is nothing to redo.
+     */
+    TaskChange redo() {
+        TaskChange change = redoStack.poll();
+        if(change == null) return null;
+        undoStack.push(change);
+        return change;
+    }
+
+    /**
+     * Queues the applied change for the next flush, merged with the last pending change
+     * of the same task if possible. Flush is delayed again.
+     * @param snapshot Tasks list right after the change.
+     */
+    void persist(TaskChange change, TaskTree snapshot) {
+        if(!mergeWithLast(change, snapshot)) pending.add(new Pending(change, snapshot));
+
+        handler.removeCallbacks(flushRunnable);
+        if(pending.size() >= MAX_PENDING) flush();
+        else if(!pending.isEmpty()) handler.postDelayed(flushRunnable, FLUSH_DELAY);
+    }
+
+    /**
+     * Merges the change into the last pending change, if it's a change of the same task.
+     * Both are replaced with one change that has the same effect, or removed
+     * if together they change nothing (e.g. change and its undo).
+     * Only the last pending change can be merged, as the positions of the earlier ones
+     * could depend on the changes after them.
+     *
+     * @return True if the change is merged, false if it has to be queued by itself.
+     */
+    private boolean mergeWithLast(TaskChange change, TaskTree snapshot) {
+        if(pending.isEmpty()) return false;
+        Pending last = pending.get(pending.size() - 1);
+        TaskChange previous = last.change;
+        if(previous.getTask().getId() != change.getTask().getId()) return false;
+
+        int type = change.getType();
+        TaskChange merged;
+        switch (previous.getType()) {
+            case TaskChange.INSERTED:
+                // Task never reached the DB, it is inserted with the latest data at the latest position
+                if(type == TaskChange.REMOVED) merged = null;
+                else merged = TaskChange.inserted(change.getToPosition(), change.getTask());
+                break;
+            case TaskChange.REMOVED:
+                // Undone removal. Removed task is inserted back as it was
+                if(type != TaskChange.INSERTED || change.getToPosition() != previous.getFromPosition()) return false;
+                merged = null;
+                break;
+            case TaskChange.MOVED:
+                if(type == TaskChange.MOVED) {
+                    merged = previous.getFromPosition() == change.getToPosition() ? null :
+                            TaskChange.moved(previous.getFromPosition(), change.getToPosition(), change.getTask());
+                } else if(type == TaskChange.REMOVED) {
+                    merged = TaskChange.removed(previous.getFromPosition(), change.getTask());
+                } else {
+                    return false;
+                }
+                break;
+            default:
+                // Removal isn't merged, so the change stays if the removal is undone
+                if(type != TaskChange.CHANGED) return false;
+                // Written data is compared to the data before the first change, on flush
+                merged = TaskChange.changed(change.getFromPosition(), previous.getPreviousTask(), change.getTask());
+                break;
+        }
+
+        if(merged == null) {
+            pending.remove(pending.size() - 1);
+        } else {
+            last.change = merged;
+            last.snapshot = snapshot;
+        }
+        return true;
+    }
+
+    /**
+     * @return Changes waiting for the flush, in order.
+     */
+    @VisibleForTesting
+    List<TaskChange> getPendingChanges() {
+        List<TaskChange> changes = new ArrayList<>(pending.size());
+        for(Pending entry : pending) changes.add(entry.change);
+        return changes;
+    }
+
+    /**
+     * Writes all pending changes to the DB, in order. Called when the app goes to the background,
+     * so nothing waits for the delayed flush then.
+     */
+    void flush() {
+        handler.removeCallbacks(flushRunnable);
+        for(Pending entry : pending) write(entry.change, entry.snapshot);
+        pending.clear();
+    }
+
+    /**
+     * Runs {@link #flush()} after the delay.
+     */
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Writes one change. Positions of the tasks are refreshed first, as they are persisted
+     * in the state right before the change.
+     * The change is written through a copy of its task, as the task itself is in the published
+     * snapshots, which are read from other threads and must not change. The copy starts
+     * without dirty fields, so just what the change sets is written.
+     */
+    private void write(TaskChange change, TaskTree snapshot) {
+        Task task = new Task(change.getTask());
+        switch (change.getType()) {
+            case TaskChange.INSERTED:
+                task.setPersistedPosition(change.getToPosition());
+                dbHandler.addTask(task, snapshot);
+                break;
+            case TaskChange.REMOVED:
+                task.setPersistedPosition(change.getFromPosition());
+                dbHandler.removeTask(task);
+                break;
+            case TaskChange.MOVED:
+                task.setPersistedPosition(change.getFromPosition());
+                task.setPosition(change.getToPosition());
+                dbHandler.moveTask(task, change.getFromPosition(), change.getToPosition(), snapshot);
+                break;
+            case TaskChange.CHANGED:
+                Task previousTask = change.getPreviousTask();
+                task.setPersistedPosition(change.getFromPosition());
+                // Just the data that really differs from the stored task is written
+                task.markDirty(task.getDifferentFields(previousTask));
+                // Rank of the replaced task could have been assigned after this one was copied from it
+                task.setRank(dbHandler.getRank(previousTask));
+                dbHandler.updateTask(task);
+                break;
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package com.invariant.android.tasks;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Prepares the rows of the tasks list before they are scrolled into view. While the list is
+ * scrolled, everything that is shown in the next rows in the direction of the scroll
+ * (formatted dates and measured titles, see {@link RowModel}) is computed on a background thread,
+ * so binding those rows just assigns the prepared values. The faster the scroll, the more rows
+ * are prepared ahead.
+ *
+ * Models are kept by position in a direct-mapped array, which holds all rows around the visible
+ * ones without conflicts. A model is used only if its task is still the one at its position.
+ * Used on the main thread, except for the computation of the models.
+ */
+class RowPrefetcher {
+
+    /**
+     * Number of the kept models. Power of two, larger than the visible rows and {@link #MAX_AHEAD}.
+     */
+    private static final int SIZE = 256;
+    /**
+     * Minimum and maximum number of rows that are prepared ahead of the visible ones.
+     */
+    private static final int MIN_AHEAD = 8;
+    private static final int MAX_AHEAD = 96;
+    /**
+     * Rows that will be scrolled into view in this many frames at the current speed are prepared.
+     */
+    private static final int FRAMES_AHEAD = 30;
+
+    /**
+     * Thread on which the models are computed, in the order of the requests.
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Everything that is shown in one row, ready to be set to its views.
+     */
+    static class RowModel {
+        final int position;
+        final Task task;
+        /**
+         * Title with the measured text layout, or null if it isn't measured.
+         * See {@link #setTextParams(PrecomputedTextCompat.Params)}.
+         */
+        final PrecomputedTextCompat title;
+        final String startTime, endTime;
+
+        RowModel(int position, Task task, PrecomputedTextCompat title) {
+            this.position = position;
+            this.task = task;
+            this.title = title;
+            this.startTime = DateFormatter.formatDate(task.getStart());
+            this.endTime = DateFormatter.formatDate(task.getEnd());
+        }
+
+        /**
+         * @return True if the model shows the same data as the given task.
+         */
+        boolean isModelOf(Task task) {
+            if(this.task == task) return true;
+            return this.task.getId() == task.getId() && this.task.getDifferentFields(task) == 0;
+        }
+    }
+
+    /**
+     * Handler of the main thread, where the models are stored.
+     */
+    private Handler mainHandler;
+
+    /**
+     * Prepared models, every one in the slot of its position (position & (SIZE - 1)).
+     */
+    private RowModel[] models = new RowModel[SIZE];
+    /**
+     * Position and snapshot of the last requested model of every slot, so a row
+     * isn't requested again while it's computed.
+     */
+    private int[] requestedPositions = new int[SIZE];
+    private TaskTree[] requestedSnapshots = new TaskTree[SIZE];
+
+    /**
+     * Snapshot of the tasks that is shown. Requests of the older snapshots are skipped.
+     */
+    private volatile TaskTree snapshot;
+    /**
+     * Text parameters of the title TextView, used to measure the titles. Titles aren't
+     * measured until they are set.
+     */
+    private volatile PrecomputedTextCompat.Params textParams;
+
+    /**
+     * Constructor. Nothing is prepared until the list is scrolled.
+     */
+    RowPrefetcher() {
+        mainHandler = new Handler(Looper.getMainLooper());
+        for(int slot = 0; slot < SIZE; slot++) requestedPositions[slot] = -1;
+    }
+
+    /**
+     * Sets the parameters for measuring the titles. They have to be the parameters of the
+     * TextView in which the titles are shown, or the measured text can't be used there.
+     */
+    void setTextParams(PrecomputedTextCompat.Params textParams) {
+        this.textParams = textParams;
+    }
+
+    /**
+     * @return Prepared model of the row, or null if there is no model of this task at the position.
+     */
+    RowModel get(int position, Task task) {
+        RowModel model = models[position & (SIZE - 1)];
+        if(model == null || model.position != position || !model.isModelOf(task)) return null;
+        return model;
+    }
+
+    /**
+     * Prepares the rows that will be shown next. Called on every scroll.
+     *
+     * @param tasks Snapshot of the shown tasks.
+     * @param firstVisible Position of the first visible row.
+     * @param lastVisible Position of the last visible row.
+     * @param dy Scrolled distance since the last call in pixels, positive when scrolling down.
+     * @param rowHeight Height of one row in pixels.
+     */
+    void onScrolled(TaskTree tasks, int firstVisible, int lastVisible, int dy, int rowHeight) {
+        snapshot = tasks;
+        if(dy == 0) return;
+
+        int ahead = MIN_AHEAD + (int) ((long) Math.abs(dy) * FRAMES_AHEAD / Math.max(rowHeight, 1));
+        ahead = Math.min(ahead, MAX_AHEAD);
+        int from, to;
+        if(dy > 0) {
+            from = lastVisible + 1;
+            to = Math.min(lastVisible + ahead, tasks.size() - 1);
+        } else {
+            from = Math.max(firstVisible - ahead, 0);
+            to = firstVisible - 1;
+        }
+        if(from > to) return;
+
+        // Just the rows that haven't been requested already
+        int requestFrom = Integer.MAX_VALUE, requestTo = -1;
+        for(int position = from; position <= to; position++) {
+            int slot = position & (SIZE - 1);
+            if(requestedPositions[slot] == position && requestedSnapshots[slot] == tasks) continue;
+            requestedPositions[slot] = position;
+            requestedSnapshots[slot] = tasks;
+            requestFrom = Math.min(requestFrom, position);
+            requestTo = position;
+        }
+        if(requestTo < 0) return;
+        request(tasks, requestFrom, requestTo);
+    }
+
+    /**
+     * Computes the models of the rows from {@param from} to {@param to} (inclusive) on
+     * {@link #PREFETCH_EXECUTOR} and stores them on the main thread.
+     */
+    private void request(final TaskTree tasks, final int from, final int to) {
+        PREFETCH_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final RowModel[] computed = new RowModel[to - from + 1];
+                PrecomputedTextCompat.Params params = textParams;
+                for(int position = from; position <= to; position++) {
+                    // List has changed, these rows aren't going to be shown
+                    if(tasks != snapshot) return;
+                    Task task = tasks.get(position);
+                    PrecomputedTextCompat title = params == null ? null :
+                            PrecomputedTextCompat.create(task.getTitle(), params);
+                    computed[position - from] = new RowModel(position, task, title);
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(RowModel model : computed) models[model.position & (SIZE - 1)] = model;
+                    }
+                });
+            }
+        });
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.invariant.android.tasks;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+/**
+ * Tag of the {@link Task}. Tasks reference tags by {@link #id}, so the name of the tag
+ * is stored just once and tasks are grouped by comparing ints.
+ *
+ * It is also the entity for a room db.
+ */
+@Entity(indices = {@Index(value = "tag_name", unique = true)})
+public class Tag {
+
+    /**
+     * Tag id of the task that has no tag. It is never used as an id of a stored tag.
+     */
+    public static final int NO_TAG_ID = 0;
+
+    /**
+     * Id of the tag for the DB.
+     */
+    @PrimaryKey
+    private int id;
+    /**
+     * Name of the tag, as typed by the user. Unique.
+     */
+    @ColumnInfo(name = "tag_name")
+    private String name;
+
+    /**
+     * Constructor. Sets all required elements.
+     *
+     * @param id Id of the {@link Tag}.
+     * @param name Name of the {@link Tag}.
+     */
+    public Tag(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    /**
+     * Getter methods
+     */
+    public int getId() {
+        return id;
+    }
+    public String getName() {
+        return name;
+    }
+
+}
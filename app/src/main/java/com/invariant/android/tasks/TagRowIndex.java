@@ -0,0 +1,593 @@
+package com.invariant.android.tasks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Rows (positions in the tasks list) of the tasks of every tag, as compressed bitmaps.
+ * Used for filtering by tags and for the tag lines, without scanning all the tasks.
+ *
+ * Positions are split into chunks of at most {@link #CHUNK_SIZE} consecutive positions, and every
+ * chunk keeps one container of rows for every tag that is in it (roaring-style). Sparse containers
+ * are sorted arrays of the offsets in the chunk, dense ones are bitmaps. Chunks with too many tags
+ * keep one array with the tag of every row instead (see {@link Chunk}). Chunks don't have fixed
+ * starts, so inserting or removing a row shifts just the rows of its own chunk and
+ * the rows after it are moved implicitly, with the chunk.
+ *
+ * It is updated incrementally, along with the tasks list. Not thread safe, {@link AppData} guards it.
+ */
+public class TagRowIndex {
+
+    /**
+     * Maximum number of positions in one chunk. Full chunk is split in two on insert.
+     */
+    private static final int CHUNK_SIZE = 4096;
+    /**
+     * Number of 64 bit words of a bitmap container.
+     */
+    private static final int WORDS = CHUNK_SIZE / 64;
+    /**
+     * Maximum number of rows in an array container. Larger containers are bitmaps,
+     * which are then smaller. Bitmap becomes an array again when it has half of this.
+     */
+    private static final int ARRAY_MAX = 256;
+    /**
+     * Maximum number of tags (containers) in one chunk. Chunks with more tags keep the tag of every row.
+     */
+    private static final int MAX_CONTAINERS = 64;
+
+    /**
+     * Interface for reading the rows. See {@link #visitRows(int, RowVisitor)}.
+     */
+    public interface RowVisitor {
+        void visit(int tagId, int row);
+    }
+
+    /**
+     * Rows of one tag in one chunk, as offsets from the start of the chunk.
+     * Either sorted array ({@link #values}) or bitmap ({@link #bits}), the other one is null.
+     */
+    private static class Container {
+        char[] values;
+        long[] bits;
+        int cardinality;
+
+        Container() {
+            values = new char[4];
+        }
+
+        /**
+         * Adds the offset. It must not be in the container yet.
+         */
+        void add(int offset) {
+            if(bits != null) {
+                bits[offset >>> 6] |= 1L << offset;
+                cardinality++;
+                return;
+            }
+            int idx = lowerBound(offset);
+            if(cardinality == values.length) values = Arrays.copyOf(values, values.length * 2);
+            System.arraycopy(values, idx, values, idx + 1, cardinality - idx);
+            values[idx] = (char) offset;
+            cardinality++;
+            if(cardinality > ARRAY_MAX) toBitmap();
+        }
+
+        /**
+         * Removes the offset without shifting the others.
+         * @return True if it was in the container.
+         */
+        boolean clear(int offset) {
+            if(bits != null) {
+                long bit = 1L << offset;
+                if((bits[offset >>> 6] & bit) == 0) return false;
+                bits[offset >>> 6] &= ~bit;
+                cardinality--;
+                if(cardinality <= ARRAY_MAX / 2) toArray();
+                return true;
+            }
+            int idx = lowerBound(offset);
+            if(idx == cardinality || values[idx] != offset) return false;
+            System.arraycopy(values, idx + 1, values, idx, cardinality - 1 - idx);
+            cardinality--;
+            return true;
+        }
+
+        /**
+         * Shifts all offsets from the given one up by one, so the offset is free.
+         */
+        void insertGap(int offset) {
+            if(bits != null) {
+                int word = offset >>> 6;
+                for(int idx = WORDS - 1; idx > word; idx--) {
+                    bits[idx] = (bits[idx] << 1) | (bits[idx - 1] >>> 63);
+                }
+                long lowMask = (1L << offset) - 1;
+                bits[word] = (bits[word] & lowMask) | ((bits[word] & ~lowMask) << 1);
+                return;
+            }
+            for(int idx = lowerBound(offset); idx < cardinality; idx++) values[idx]++;
+        }
+
+        /**
+         * Removes the offset if it is in the container and shifts all offsets after it down by one.
+         */
+        void removeGap(int offset) {
+            clear(offset);
+            if(bits != null) {
+                int word = offset >>> 6;
+                long lowMask = (1L << offset) - 1;
+                bits[word] = (bits[word] & lowMask) | ((bits[word] >>> 1) & ~lowMask);
+                for(int idx = word; idx < WORDS; idx++) {
+                    if(idx > word) bits[idx] >>>= 1;
+                    if(idx + 1 < WORDS) bits[idx] |= bits[idx + 1] << 63;
+                }
+                return;
+            }
+            for(int idx = lowerBound(offset); idx < cardinality; idx++) values[idx]--;
+        }
+
+        /**
+         * @return Sorted offsets in the container.
+         */
+        int[] toOffsets() {
+            int[] offsets = new int[cardinality];
+            if(bits == null) {
+                for(int idx = 0; idx < cardinality; idx++) offsets[idx] = values[idx];
+                return offsets;
+            }
+            int count = 0;
+            for(int word = 0; word < WORDS; word++) {
+                long remaining = bits[word];
+                while(remaining != 0) {
+                    offsets[count++] = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                    remaining &= remaining - 1;
+                }
+            }
+            return offsets;
+        }
+
+        /**
+         * Sets bits of all offsets in the given bitmap.
+         */
+        void orInto(long[] bitmap) {
+            if(bits != null) {
+                for(int word = 0; word < WORDS; word++) bitmap[word] |= bits[word];
+            } else {
+                for(int idx = 0; idx < cardinality; idx++) bitmap[values[idx] >>> 6] |= 1L << values[idx];
+            }
+        }
+
+        /**
+         * @return Index of the first value not less than the offset. Just for arrays.
+         */
+        private int lowerBound(int offset) {
+            int low = 0, high = cardinality;
+            while(low < high) {
+                int middle = (low + high) >>> 1;
+                if(values[middle] < offset) low = middle + 1;
+                else high = middle;
+            }
+            return low;
+        }
+
+        private void toBitmap() {
+            bits = new long[WORDS];
+            for(int idx = 0; idx < cardinality; idx++) bits[values[idx] >>> 6] |= 1L << values[idx];
+            values = null;
+        }
+
+        private void toArray() {
+            int[] offsets = toOffsets();
+            values = new char[Math.max(4, offsets.length)];
+            for(int idx = 0; idx < offsets.length; idx++) values[idx] = (char) offsets[idx];
+            bits = null;
+        }
+    }
+
+    /**
+     * Consecutive positions of the list, with the rows of the tags that are in them.
+     *
+     * While the chunk has at most {@link #MAX_CONTAINERS} tags, it keeps one container for every tag,
+     * in a small hash table keyed by the tag id. Chunks with more tags (e.g. many tags with a few
+     * tasks each) keep the tag of every row in {@link #rowTags} instead, so inserting a row shifts
+     * one array instead of every container. Such chunk keeps the rows until it is split.
+     */
+    private static class Chunk {
+        /**
+         * Number of positions in the chunk.
+         */
+        int length;
+        /**
+         * Tag id of every row, {@link Tag#NO_TAG_ID} for rows without a tag.
+         * Null while the rows are kept in the containers.
+         */
+        int[] rowTags;
+        /**
+         * Containers mapped by tag id, open addressing with linear probing.
+         * Slot is empty if its container is null. Power of two, at most half full.
+         */
+        int[] tagIds = new int[8];
+        Container[] containers = new Container[8];
+        int tagCount;
+
+        /**
+         * @return Container of the tag or null if the tag has no rows in this chunk (or it keeps {@link #rowTags}).
+         */
+        Container get(int tagId) {
+            int mask = tagIds.length - 1;
+            for(int slot = hash(tagId) & mask; containers[slot] != null; slot = (slot + 1) & mask) {
+                if(tagIds[slot] == tagId) return containers[slot];
+            }
+            return null;
+        }
+
+        /**
+         * Inserts the row at the given offset. Rows from the offset on move one offset down.
+         */
+        void insert(int offset, int tagId) {
+            if(rowTags != null) {
+                System.arraycopy(rowTags, offset, rowTags, offset + 1, length - offset);
+                rowTags[offset] = tagId;
+                length++;
+                return;
+            }
+            // Nothing is shifted when appending
+            if(offset < length) {
+                for(Container container : containers) if(container != null) container.insertGap(offset);
+            }
+            length++;
+            if(tagId != Tag.NO_TAG_ID) add(tagId, offset);
+        }
+
+        /**
+         * Removes the row at the given offset. Rows after it move one offset up.
+         */
+        void remove(int offset) {
+            if(rowTags != null) {
+                System.arraycopy(rowTags, offset + 1, rowTags, offset, length - offset - 1);
+                length--;
+                return;
+            }
+            boolean emptied = false;
+            for(Container container : containers) {
+                if(container == null) continue;
+                container.removeGap(offset);
+                if(container.cardinality == 0) emptied = true;
+            }
+            length--;
+            if(emptied) rehash(tagIds.length);
+        }
+
+        /**
+         * Changes the tag of the row at the given offset.
+         */
+        void setTag(int offset, int previousTagId, int tagId) {
+            if(rowTags != null) {
+                rowTags[offset] = tagId;
+                return;
+            }
+            if(previousTagId != Tag.NO_TAG_ID) {
+                Container container = get(previousTagId);
+                if(container != null && container.clear(offset) && container.cardinality == 0) {
+                    rehash(tagIds.length);
+                }
+            }
+            if(tagId != Tag.NO_TAG_ID) add(tagId, offset);
+        }
+
+        /**
+         * Adds the row of the tag to its container. New container is created if needed.
+         * Switches to {@link #rowTags} when there would be too many containers.
+         */
+        private void add(int tagId, int offset) {
+            if(rowTags == null) {
+                Container container = get(tagId);
+                if(container == null && tagCount < MAX_CONTAINERS) {
+                    if((tagCount + 1) * 2 > tagIds.length) rehash(tagIds.length * 2);
+                    container = new Container();
+                    put(tagId, container);
+                }
+                if(container != null) {
+                    container.add(offset);
+                    return;
+                }
+                toRowTags();
+            }
+            rowTags[offset] = tagId;
+        }
+
+        /**
+         * Puts the container to the first free slot of its tag. There must be one.
+         */
+        private void put(int tagId, Container container) {
+            int mask = tagIds.length - 1;
+            int slot = hash(tagId) & mask;
+            while(containers[slot] != null) slot = (slot + 1) & mask;
+            tagIds[slot] = tagId;
+            containers[slot] = container;
+            tagCount++;
+        }
+
+        /**
+         * Moves the containers to the table of the given size, without the empty ones.
+         */
+        private void rehash(int capacity) {
+            int[] oldTagIds = tagIds;
+            Container[] oldContainers = containers;
+            tagIds = new int[capacity];
+            containers = new Container[capacity];
+            tagCount = 0;
+            for(int slot = 0; slot < oldContainers.length; slot++) {
+                Container container = oldContainers[slot];
+                if(container != null && container.cardinality > 0) put(oldTagIds[slot], container);
+            }
+        }
+
+        /**
+         * Moves all rows from the containers to {@link #rowTags}.
+         */
+        private void toRowTags() {
+            rowTags = new int[CHUNK_SIZE];
+            Arrays.fill(rowTags, Tag.NO_TAG_ID);
+            for(int slot = 0; slot < containers.length; slot++) {
+                if(containers[slot] == null) continue;
+                for(int offset : containers[slot].toOffsets()) rowTags[offset] = tagIds[slot];
+            }
+            tagIds = new int[1];
+            containers = new Container[1];
+            tagCount = 0;
+        }
+
+        /**
+         * Calls the visitor for every tagged row before {@param endRow}, without allocating.
+         * @param start Position of the first row of the chunk.
+         */
+        void visitRows(int start, int endRow, RowVisitor visitor) {
+            int end = Math.min(length, endRow - start);
+            if(rowTags != null) {
+                for(int offset = 0; offset < end; offset++) {
+                    if(rowTags[offset] != Tag.NO_TAG_ID) visitor.visit(rowTags[offset], start + offset);
+                }
+                return;
+            }
+            for(int slot = 0; slot < containers.length; slot++) {
+                Container container = containers[slot];
+                if(container == null) continue;
+                int tagId = tagIds[slot];
+                if(container.bits == null) {
+                    for(int idx = 0; idx < container.cardinality && container.values[idx] < end; idx++) {
+                        visitor.visit(tagId, start + container.values[idx]);
+                    }
+                    continue;
+                }
+                for(int word = 0; word < WORDS && (word << 6) < end; word++) {
+                    long remaining = container.bits[word];
+                    while(remaining != 0) {
+                        int offset = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                        if(offset >= end) break;
+                        visitor.visit(tagId, start + offset);
+                        remaining &= remaining - 1;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Sets bits of all rows of the given tags in the bitmap.
+         * @return True if any of the tags is in the chunk.
+         */
+        boolean orInto(int[] filterTagIds, long[] bitmap) {
+            boolean found = false;
+            if(rowTags != null) {
+                for(int offset = 0; offset < length; offset++) {
+                    for(int tagId : filterTagIds) {
+                        if(rowTags[offset] != tagId || tagId == Tag.NO_TAG_ID) continue;
+                        bitmap[offset >>> 6] |= 1L << offset;
+                        found = true;
+                    }
+                }
+                return found;
+            }
+            for(int tagId : filterTagIds) {
+                Container container = get(tagId);
+                if(container == null) continue;
+                container.orInto(bitmap);
+                found = true;
+            }
+            return found;
+        }
+
+        /**
+         * @return Two chunks with the first half and the second half of the rows.
+         */
+        Chunk[] split() {
+            Chunk first = new Chunk();
+            Chunk second = new Chunk();
+            int half = length / 2;
+            first.length = half;
+            second.length = length - half;
+            if(rowTags != null) {
+                for(int offset = 0; offset < length; offset++) {
+                    int tagId = rowTags[offset];
+                    if(tagId == Tag.NO_TAG_ID) continue;
+                    if(offset < half) first.add(tagId, offset);
+                    else second.add(tagId, offset - half);
+                }
+                return new Chunk[] {first, second};
+            }
+            for(int slot = 0; slot < containers.length; slot++) {
+                if(containers[slot] == null) continue;
+                for(int offset : containers[slot].toOffsets()) {
+                    if(offset < half) first.add(tagIds[slot], offset);
+                    else second.add(tagIds[slot], offset - half);
+                }
+            }
+            return new Chunk[] {first, second};
+        }
+
+        /**
+         * Spreads tag ids over the table (Fibonacci hashing).
+         */
+        private static int hash(int tagId) {
+            int hash = tagId * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * All chunks, in order.
+     */
+    private ArrayList<Chunk> chunks;
+    /**
+     * Number of positions, tagged or not.
+     */
+    private int size;
+
+    /**
+     * Constructor. Creates an empty index.
+     */
+    TagRowIndex() {
+        chunks = new ArrayList<>();
+        size = 0;
+    }
+
+    /**
+     * Adds the row of the task to the end.
+     * @param tagId Tag id of the task, {@link Tag#NO_TAG_ID} if it has no tag.
+     */
+    void append(int tagId) {
+        insert(size, tagId);
+    }
+
+    /**
+     * Inserts the row of the task. Rows from the given position on move one position down.
+     * @param tagId Tag id of the task, {@link Tag#NO_TAG_ID} if it has no tag.
+     */
+    void insert(int position, int tagId) {
+        int chunkIdx = findChunk(position, true);
+        Chunk chunk = chunks.get(chunkIdx);
+        if(chunk.length == CHUNK_SIZE) {
+            Chunk[] halves = chunk.split();
+            chunks.set(chunkIdx, halves[0]);
+            chunks.add(chunkIdx + 1, halves[1]);
+            chunkIdx = findChunk(position, true);
+            chunk = chunks.get(chunkIdx);
+        }
+        chunk.insert(position - chunkStart, tagId);
+        size++;
+    }
+
+    /**
+     * Removes the row at the given position. Rows after it move one position up.
+     */
+    void remove(int position) {
+        int chunkIdx = findChunk(position, false);
+        Chunk chunk = chunks.get(chunkIdx);
+        chunk.remove(position - chunkStart);
+        size--;
+        if(chunk.length == 0) chunks.remove(chunkIdx);
+    }
+
+    /**
+     * Moves the row from {@param fromPosition} to {@param toPosition}.
+     * Rows in between shift by one position.
+     * @param tagId Tag id of the moved task.
+     */
+    void move(int fromPosition, int toPosition, int tagId) {
+        remove(fromPosition);
+        insert(toPosition, tagId);
+    }
+
+    /**
+     * Changes the tag of the task at the given position.
+     */
+    void setTag(int position, int previousTagId, int tagId) {
+        if(previousTagId == tagId) return;
+        Chunk chunk = chunks.get(findChunk(position, false));
+        chunk.setTag(position - chunkStart, previousTagId, tagId);
+    }
+
+    /**
+     * Calls the visitor for every tagged row before {@param endRow}.
+     * Rows of every tag are visited in ascending order. Nothing is allocated.
+     */
+    public void visitRows(int endRow, RowVisitor visitor) {
+        int start = 0;
+        for(Chunk chunk : chunks) {
+            if(start >= endRow) return;
+            chunk.visitRows(start, endRow, visitor);
+            start += chunk.length;
+        }
+    }
+
+    /**
+     * @return Ascending rows of the tasks that have any of the given tags (union of their bitmaps).
+     */
+    int[] getRowsWithAnyTag(int[] tagIds) {
+        int[] rows = new int[16];
+        int count = 0;
+        long[] bitmap = new long[WORDS];
+        int start = 0;
+        for(Chunk chunk : chunks) {
+            Arrays.fill(bitmap, 0);
+            boolean found = chunk.orInto(tagIds, bitmap);
+            if(found) {
+                for(int word = 0; word < WORDS; word++) {
+                    long remaining = bitmap[word];
+                    while(remaining != 0) {
+                        if(count == rows.length) rows = Arrays.copyOf(rows, count * 2);
+                        rows[count++] = start + (word << 6) + Long.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                    }
+                }
+            }
+            start += chunk.length;
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Start position of the chunk last found by {@link #findChunk(int, boolean)}.
+     */
+    private int chunkStart;
+
+    /**
+     * Finds the chunk with the given position and sets {@link #chunkStart}.
+     * Chunks are few (n / {@link #CHUNK_SIZE} at least), so they are searched linearly,
+     * from the end when the position is closer to it (appending is the most common).
+     *
+     * @param forInsert True if the position can be the end of the chunk (position right after it).
+     *                  New chunk is created if there are none.
+     * @return Index of the chunk.
+     */
+    private int findChunk(int position, boolean forInsert) {
+        if(chunks.isEmpty()) {
+            chunks.add(new Chunk());
+            chunkStart = 0;
+            return 0;
+        }
+        if(position > size / 2) {
+            int start = size;
+            for(int idx = chunks.size() - 1; idx >= 0; idx--) {
+                start -= chunks.get(idx).length;
+                // Position at the start of the chunk is inserted at the end of the previous one
+                if(forInsert ? (position > start || idx == 0) : position >= start) {
+                    chunkStart = start;
+                    return idx;
+                }
+            }
+        }
+        int start = 0;
+        for(int idx = 0; idx < chunks.size(); idx++) {
+            int end = start + chunks.get(idx).length;
+            if(position < end || (forInsert && position == end)) {
+                chunkStart = start;
+                return idx;
+            }
+            start = end;
+        }
+        throw new IndexOutOfBoundsException("Position: " + position + ", size: " + size);
+    }
+
+}
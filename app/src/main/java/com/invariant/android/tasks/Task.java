@@ -4,14 +4,16 @@ import androidx.annotation.NonNull;
 import androidx.room.ColumnInfo;
 import androidx.room.Entity;
 import androidx.room.Ignore;
+import androidx.room.Index;
 import androidx.room.PrimaryKey;
 
 /**
- * Class for storing all the data of the Task. Task is the element shown in the main ListView.
+ * Class for storing all the data of the Task. Task is the element shown in the main RecyclerView.
  *
- * It is also the entity for a room db.
+ * It is also the entity for a room db. Indices on ordering columns let the DB
+ * return tasks already in list order.
  */
-@Entity
+@Entity(indices = {@Index("list_position"), @Index({"list_rank", "list_position"}), @Index("tag_id")})
 public class Task {
 
     /**
@@ -19,24 +21,47 @@ public class Task {
      */
     static final int INVALID_ID = -100;
 
+    /**
+     * Flags of the fields (DB columns) that can be dirty. See {@link #dirtyFields}.
+     */
+    public static final int FIELD_POSITION = 1;
+    public static final int FIELD_RANK = 1 << 1;
+    public static final int FIELD_TITLE = 1 << 2;
+    public static final int FIELD_TAG = 1 << 3;
+    public static final int FIELD_START = 1 << 4;
+    public static final int FIELD_END = 1 << 5;
+    public static final int ALL_FIELDS = (1 << 6) - 1;
+
     /**
      * Id of the task for the DB.
      */
     @PrimaryKey
     private int id;
     /**
-     * Position of the task in the tasks list.
+     * Persisted position of the task in the tasks list. In memory, the position is implicit
+     * (see {@link TaskTree}), so this is brought up to date just before the task is written.
      */
     @ColumnInfo(name = "list_position")
     private int position;
+    /**
+     * Sparse ordering key of the task. Used instead of {@link #position}
+     * when tasks are ordered by rank (see {@link com.invariant.android.tasks.database.DatabaseHandler}).
+     * Null if rank isn't assigned yet.
+     */
+    @ColumnInfo(name = "list_rank")
+    private String rank;
 
     /**
      * Data of the {@link Task}.
      */
     @ColumnInfo(name = "task_title")
     private String title;
-    @ColumnInfo(name = "task_tag")
-    private String tag;
+    /**
+     * Id of the {@link Tag} of the task or {@link Tag#NO_TAG_ID}.
+     * Name of the tag is resolved through the {@link com.invariant.android.tasks.database.TagDictionary}.
+     */
+    @ColumnInfo(name = "tag_id")
+    private int tagId;
 
     /**
      * Start and end time of the task (event,...) expressed milliseconds
@@ -46,6 +71,27 @@ public class Task {
     @ColumnInfo(name = "task_end_time")
     private long end;
 
+    /**
+     * Flags ({@link #FIELD_TITLE},...) of the fields changed since the task was last persisted.
+     * Used to write just the changed columns.
+     */
+    @Ignore
+    private int dirtyFields;
+
+    /**
+     * Constructor used by Room for the rows read from the DB. Every column is passed in,
+     * so no setter is called and the loaded task has no dirty fields.
+     */
+    public Task(int id, int position, String rank, String title, int tagId, long start, long end) {
+        this.id = id;
+        this.position = position;
+        this.rank = rank;
+        this.title = title;
+        this.tagId = tagId;
+        this.start = start;
+        this.end = end;
+    }
+
     /**
      * Constructor. Sets all required elements.
      *
@@ -53,20 +99,22 @@ public class Task {
      * @param start Start time of the {@link Task} in milliseconds.
      * @param end End time of the {@link Task} in milliseconds.
      */
+    @Ignore
     public Task(int id, String title, long start, long end) {
         this.id = id;
         this.title = title;
         this.start = start;
         this.end = end;
-        this.tag = "";
+        this.tagId = Tag.NO_TAG_ID;
     }
 
     /**
      * Constructor for making new {@link Task} object out of existing one.
-     * It shallow copies an {@link Task} object.
+     * It shallow copies an {@link Task} object. The copy has no dirty fields,
+     * they are copied just explicitly (see {@link #markDirty(int)}).
      */
     @Ignore
-    Task(Task copyFrom) {
+    public Task(Task copyFrom) {
         shallowCopy(copyFrom);
     }
 
@@ -79,19 +127,20 @@ public class Task {
         this.id = id;
         this.title = "";
         this.start = this.end = System.currentTimeMillis();
-        this.tag = "";
+        this.tagId = Tag.NO_TAG_ID;
     }
 
     /**.
-     * It shallow copies an existing {@link Task} object into this one.
+     * It shallow copies an existing {@link Task} object into this one, without its dirty fields.
      */
     private void shallowCopy(Task copyFrom) {
         this.id = copyFrom.getId();
         this.position = copyFrom.getPosition();
+        this.rank = copyFrom.getRank();
         this.title = copyFrom.getTitle();
         this.start = copyFrom.getStart();
         this.end = copyFrom.getEnd();
-        this.tag = copyFrom.getTag();
+        this.tagId = copyFrom.getTagId();
     }
 
     /**
@@ -111,34 +160,95 @@ public class Task {
         return this.id;
     }
     public void setPosition(int position) {
+        if(this.position != position) dirtyFields |= FIELD_POSITION;
         this.position = position;
     }
     public int getPosition() {
         return this.position;
     }
+    public void setRank(String rank) {
+        if(!equal(this.rank, rank)) dirtyFields |= FIELD_RANK;
+        this.rank = rank;
+    }
+    public String getRank() {
+        return this.rank;
+    }
     void setTitle(@NonNull String title) {
+        if(!equal(this.title, title)) dirtyFields |= FIELD_TITLE;
         this.title = title;
     }
     public String getTitle() {
         return title;
     }
     void setStart(long start) {
+        if(this.start != start) dirtyFields |= FIELD_START;
         this.start = start;
     }
     public long getStart() {
         return start;
     }
     void setEnd(long end) {
+        if(this.end != end) dirtyFields |= FIELD_END;
         this.end = end;
     }
     public long getEnd() {
         return end;
     }
-    public void setTag(String tag) {
-        this.tag = tag;
+    public void setTagId(int tagId) {
+        if(this.tagId != tagId) dirtyFields |= FIELD_TAG;
+        this.tagId = tagId;
+    }
+    public int getTagId() {
+        return tagId;
+    }
+    public boolean hasTag() {
+        return tagId != Tag.NO_TAG_ID;
+    }
+
+    /**
+     * Sets position that is already persisted (by shifting a range of positions in the DB),
+     * so it doesn't make the position dirty. Used to refresh the outdated stored position.
+     */
+    void setPersistedPosition(int position) {
+        this.position = position;
+    }
+
+    /**
+     * @return Flags of the data fields ({@link #FIELD_TITLE}, {@link #FIELD_TAG}, {@link #FIELD_START}
+     *         and {@link #FIELD_END}) that are different in the given task. 0 if data is the same.
+     *         Position and rank are the place of the task in the list, not its data, so they are ignored.
+     */
+    int getDifferentFields(Task other) {
+        int fields = 0;
+        if(!equal(title, other.getTitle())) fields |= FIELD_TITLE;
+        if(tagId != other.getTagId()) fields |= FIELD_TAG;
+        if(start != other.getStart()) fields |= FIELD_START;
+        if(end != other.getEnd()) fields |= FIELD_END;
+        return fields;
+    }
+
+    /**
+     * Getter and setter methods for {@link #dirtyFields}.
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+    public boolean isDirty() {
+        return dirtyFields != 0;
     }
-    public String getTag() {
-        return tag;
+    public void markDirty(int fields) {
+        dirtyFields |= fields;
+    }
+    public void clearDirtyFields() {
+        dirtyFields = 0;
+    }
+
+    /**
+     * Null safe string equality. Identical strings are equal without comparing.
+     */
+    private static boolean equal(String a, String b) {
+        //noinspection StringEquality
+        return a == b || (a != null && a.equals(b));
     }
 
 }
@@ -0,0 +1,110 @@
+package com.invariant.android.tasks;
+
+/**
+ * Describes one change of the tasks list. Emitted by {@link AppData} after every change,
+ * so listeners can update just what has changed instead of refreshing everything.
+ */
+public class TaskChange {
+
+    /**
+     * Types of the change.
+     *
+     * INSERTED - {@link #task} is inserted at {@link #toPosition}.
+     * REMOVED -  {@link #task} is removed from {@link #fromPosition}.
+     * MOVED -    {@link #task} is moved from {@link #fromPosition} to {@link #toPosition}.
+     * CHANGED -  {@link #previousTask} at {@link #fromPosition} (the same as {@link #toPosition})
+     *            is replaced with {@link #task}.
+     */
+    public static final int INSERTED = 0;
+    public static final int REMOVED = 1;
+    public static final int MOVED = 2;
+    public static final int CHANGED = 3;
+
+    /**
+     * See {@link #INSERTED}, {@link #REMOVED}, {@link #MOVED} and {@link #CHANGED}.
+     */
+    private int type;
+    /**
+     * Positions of the task before and after the change.
+     * For inserted task both are its new position, for removed task both are its old position.
+     */
+    private int fromPosition, toPosition;
+    /**
+     * Changed task. For {@link #CHANGED} it is the new task.
+     */
+    private Task task;
+    /**
+     * Task that was replaced. Set only for {@link #CHANGED}, otherwise null.
+     */
+    private Task previousTask;
+
+    /**
+     * Constructor. Use static factory methods.
+     */
+    private TaskChange(int type, int fromPosition, int toPosition, Task task, Task previousTask) {
+        this.type = type;
+        this.fromPosition = fromPosition;
+        this.toPosition = toPosition;
+        this.task = task;
+        this.previousTask = previousTask;
+    }
+
+    /**
+     * Factory methods for each type of the change.
+     */
+    static TaskChange inserted(int position, Task task) {
+        return new TaskChange(INSERTED, position, position, task, null);
+    }
+    static TaskChange removed(int position, Task task) {
+        return new TaskChange(REMOVED, position, position, task, null);
+    }
+    static TaskChange moved(int fromPosition, int toPosition, Task task) {
+        return new TaskChange(MOVED, fromPosition, toPosition, task, null);
+    }
+    static TaskChange changed(int position, Task previousTask, Task task) {
+        return new TaskChange(CHANGED, position, position, task, previousTask);
+    }
+
+    /**
+     * Getter methods.
+     */
+    public int getType() {
+        return type;
+    }
+    public int getFromPosition() {
+        return fromPosition;
+    }
+    public int getToPosition() {
+        return toPosition;
+    }
+    public Task getTask() {
+        return task;
+    }
+    public Task getPreviousTask() {
+        return previousTask;
+    }
+
+    /**
+     * @return Change that reverts this one, applied right after it.
+     */
+    TaskChange inverted() {
+        switch (type) {
+            case INSERTED:
+                return removed(toPosition, task);
+            case REMOVED:
+                return inserted(fromPosition, task);
+            case MOVED:
+                return moved(toPosition, fromPosition, task);
+            default:
+                return changed(fromPosition, task, previousTask);
+        }
+    }
+
+    /**
+     * @return True if the tag of the changed task is different after the change.
+     */
+    public boolean isTagChanged() {
+        return previousTask != null && previousTask.getTagId() != task.getTagId();
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.invariant.android.tasks;
+
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Fts4;
+import androidx.room.PrimaryKey;
+
+/**
+ * Full-text index of the task titles and tag names, for searching the tasks.
+ * Every {@link Task} has one row here, with the task id as its rowid.
+ *
+ * It is the entity for a room db FTS4 virtual table. Rows are written only by the triggers
+ * on the Task table (see {@link com.invariant.android.tasks.database.AppDatabase}), never directly.
+ */
+@Fts4
+@Entity(tableName = "TaskFts")
+public class TaskFts {
+
+    /**
+     * Id of the indexed {@link Task}.
+     */
+    @PrimaryKey
+    @ColumnInfo(name = "rowid")
+    private int rowId;
+
+    /**
+     * Title of the task and name of its {@link Tag}.
+     */
+    @ColumnInfo(name = "task_title")
+    private String title;
+    @ColumnInfo(name = "tag_name")
+    private String tagName;
+
+    /**
+     * Constructor. Sets all elements.
+     */
+    public TaskFts(int rowId, String title, String tagName) {
+        this.rowId = rowId;
+        this.title = title;
+        this.tagName = tagName;
+    }
+
+    /**
+     * Getter methods
+     */
+    public int getRowId() {
+        return rowId;
+    }
+    public String getTitle() {
+        return title;
+    }
+    public String getTagName() {
+        return tagName;
+    }
+
+}
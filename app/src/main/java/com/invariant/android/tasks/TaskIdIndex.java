@@ -0,0 +1,151 @@
+package com.invariant.android.tasks;
+
+/**
+ * Hash map from the task id to the {@link TaskTree.Entry} of the task, with primitive int keys.
+ * Open addressing with linear probing, so there is no boxing and no map entry objects.
+ * Entry gives both the task and its position in the latest {@link TaskTree}.
+ * Not thread safe, {@link AppData} guards it.
+ */
+class TaskIdIndex {
+
+    /**
+     * Key of the empty slot. Task with this id (mocked tasks of older versions)
+     * is stored separately, in {@link #emptyKeyEntry}.
+     */
+    private static final int EMPTY_KEY = 0;
+    /**
+     * Initial number of slots. Must be a power of two.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Task ids and entries. Slot is empty if its key is {@link #EMPTY_KEY}.
+     */
+    private int[] keys;
+    private TaskTree.Entry[] values;
+    /**
+     * Entry of the task with the id {@link #EMPTY_KEY} or null if there is none.
+     */
+    private TaskTree.Entry emptyKeyEntry;
+    /**
+     * Number of stored tasks.
+     */
+    private int size;
+
+    /**
+     * Constructor. Creates an empty index.
+     */
+    TaskIdIndex() {
+        keys = new int[INITIAL_CAPACITY];
+        values = new TaskTree.Entry[INITIAL_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * @return Task with the given id or null if there is none.
+     */
+    Task get(int id) {
+        TaskTree.Entry entry = getEntry(id);
+        return entry == null ? null : entry.getTask();
+    }
+
+    /**
+     * @return Entry of the task with the given id or null if there is none.
+     */
+    TaskTree.Entry getEntry(int id) {
+        if(id == EMPTY_KEY) return emptyKeyEntry;
+        int mask = keys.length - 1;
+        for(int slot = hash(id) & mask; keys[slot] != EMPTY_KEY; slot = (slot + 1) & mask) {
+            if(keys[slot] == id) return values[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Adds the entry or replaces the entry of the task with the same id.
+     */
+    void put(TaskTree.Entry entry) {
+        put(entry.getTask().getId(), entry);
+    }
+
+    /**
+     * Adds the entry or replaces the entry with the same id.
+     */
+    private void put(int id, TaskTree.Entry entry) {
+        if(id == EMPTY_KEY) {
+            if(emptyKeyEntry == null) size++;
+            emptyKeyEntry = entry;
+            return;
+        }
+        // Load factor is kept at most 1/2, so probe sequences stay short
+        if((size + 1) * 2 > keys.length) resize(keys.length * 2);
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(keys[slot] != EMPTY_KEY && keys[slot] != id) slot = (slot + 1) & mask;
+        if(keys[slot] == EMPTY_KEY) size++;
+        keys[slot] = id;
+        values[slot] = entry;
+    }
+
+    /**
+     * Removes the task with the given id if there is one.
+     */
+    void remove(int id) {
+        if(id == EMPTY_KEY) {
+            if(emptyKeyEntry != null) size--;
+            emptyKeyEntry = null;
+            return;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while(keys[slot] != id) {
+            if(keys[slot] == EMPTY_KEY) return;
+            slot = (slot + 1) & mask;
+        }
+        size--;
+
+        // Shift following entries back, so no probe sequence is broken by the gap
+        int gap = slot;
+        for(slot = (gap + 1) & mask; keys[slot] != EMPTY_KEY; slot = (slot + 1) & mask) {
+            int home = hash(keys[slot]) & mask;
+            // Entry can fill the gap only if the gap is between its home slot and its slot
+            if(((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[gap] = keys[slot];
+                values[gap] = values[slot];
+                gap = slot;
+            }
+        }
+        keys[gap] = EMPTY_KEY;
+        values[gap] = null;
+    }
+
+    /**
+     * @return Number of stored tasks.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Moves all entries to the new arrays with the given number of slots.
+     */
+    private void resize(int capacity) {
+        int[] oldKeys = keys;
+        TaskTree.Entry[] oldValues = values;
+        keys = new int[capacity];
+        values = new TaskTree.Entry[capacity];
+        size = emptyKeyEntry == null ? 0 : 1;
+        for(int slot = 0; slot < oldKeys.length; slot++) {
+            if(oldKeys[slot] != EMPTY_KEY) put(oldKeys[slot], oldValues[slot]);
+        }
+    }
+
+    /**
+     * Spreads sequential ids over the table (Fibonacci hashing).
+     */
+    private static int hash(int id) {
+        int hash = id * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+}
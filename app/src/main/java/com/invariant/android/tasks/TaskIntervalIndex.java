@@ -0,0 +1,193 @@
+package com.invariant.android.tasks;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Interval tree over the time ranges ({@link Task#getStart()} to {@link Task#getEnd()}) of the tasks.
+ * It is a treap ordered by start time (and id, for equal starts), where every node also keeps
+ * the latest end time in its subtree. Subtrees that end before the queried range or start
+ * after it are skipped. Every found task can cost a path of O(log n) nodes that aren't skipped,
+ * so a query takes O((k + 1) log n) expected time for k found tasks (and never more than O(n)).
+ *
+ * Just ids and times are stored, not the tasks.
+ * Not thread safe, {@link AppData} guards it.
+ */
+class TaskIntervalIndex {
+
+    /**
+     * Generator of node priorities.
+     */
+    private static final Random RANDOM = new Random();
+
+    /**
+     * One node of the treap. Ordered by {@link #start} and {@link #id} in-order,
+     * and by {@link #priority} as a max-heap.
+     */
+    private static class Node {
+        int id;
+        long start, end;
+        /**
+         * Latest end time in the subtree rooted at this node.
+         */
+        long maxEnd;
+        int priority;
+        Node left, right;
+
+        Node(int id, long start, long end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.maxEnd = end;
+            this.priority = RANDOM.nextInt();
+        }
+    }
+
+    /**
+     * Root of the treap. Null if there are no tasks.
+     */
+    private Node root;
+
+    /**
+     * Adds the time range of the task.
+     */
+    void add(Task task) {
+        root = insert(root, new Node(task.getId(), task.getStart(), task.getEnd()));
+    }
+
+    /**
+     * Removes the time range of the task. Times must be the same as when it was added.
+     */
+    void remove(Task task) {
+        root = remove(root, task.getStart(), task.getId());
+    }
+
+    /**
+     * Finds all tasks whose time range overlaps the given one (both inclusive).
+     * @return Ids of the found tasks, ordered by start time.
+     */
+    int[] findOverlapping(long from, long to) {
+        IdList ids = new IdList();
+        collect(root, from, to, ids);
+        return ids.toArray();
+    }
+
+    /**
+     * Adds ids of the tasks in the subtree that overlap [from, to], in order.
+     */
+    private static void collect(Node node, long from, long to, IdList ids) {
+        // Nothing in the subtree ends at or after the start of the range
+        if(node == null || node.maxEnd < from) return;
+        collect(node.left, from, to, ids);
+        // This node and everything to the right of it start after the range
+        if(node.start > to) return;
+        if(node.end >= from) ids.add(node.id);
+        collect(node.right, from, to, ids);
+    }
+
+    /**
+     * @return Root of the subtree with the new node inserted.
+     */
+    private static Node insert(Node node, Node newNode) {
+        if(node == null) return newNode;
+        if(newNode.priority > node.priority) {
+            Node[] parts = split(node, newNode.start, newNode.id);
+            newNode.left = parts[0];
+            newNode.right = parts[1];
+            update(newNode);
+            return newNode;
+        }
+        if(compare(newNode.start, newNode.id, node) < 0) node.left = insert(node.left, newNode);
+        else node.right = insert(node.right, newNode);
+        update(node);
+        return node;
+    }
+
+    /**
+     * @return Root of the subtree without the node with the given key.
+     */
+    private static Node remove(Node node, long start, int id) {
+        if(node == null) return null;
+        int cmp = compare(start, id, node);
+        if(cmp == 0) return merge(node.left, node.right);
+        if(cmp < 0) node.left = remove(node.left, start, id);
+        else node.right = remove(node.right, start, id);
+        update(node);
+        return node;
+    }
+
+    /**
+     * Splits the subtree into the nodes before the given key and the rest.
+     * @return Array of two roots: the first part and the second part.
+     */
+    private static Node[] split(Node node, long start, int id) {
+        if(node == null) return new Node[] {null, null};
+        if(compare(start, id, node) <= 0) {
+            Node[] parts = split(node.left, start, id);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+            return parts;
+        } else {
+            Node[] parts = split(node.right, start, id);
+            node.right = parts[0];
+            update(node);
+            parts[0] = node;
+            return parts;
+        }
+    }
+
+    /**
+     * Joins two subtrees, all nodes of {@param left} come before the nodes of {@param right}.
+     * @return Root of the joined subtree.
+     */
+    private static Node merge(Node left, Node right) {
+        if(left == null) return right;
+        if(right == null) return left;
+        if(left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            update(left);
+            return left;
+        } else {
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+    }
+
+    /**
+     * Recalculates {@link Node#maxEnd} of the node from its children.
+     */
+    private static void update(Node node) {
+        long maxEnd = node.end;
+        if(node.left != null) maxEnd = Math.max(maxEnd, node.left.maxEnd);
+        if(node.right != null) maxEnd = Math.max(maxEnd, node.right.maxEnd);
+        node.maxEnd = maxEnd;
+    }
+
+    /**
+     * Compares the key (start time and id) to the key of the node.
+     */
+    private static int compare(long start, int id, Node node) {
+        if(start != node.start) return start < node.start ? -1 : 1;
+        return Integer.compare(id, node.id);
+    }
+
+    /**
+     * Growable list of ids, without boxing.
+     */
+    private static class IdList {
+        int[] ids = new int[16];
+        int size = 0;
+
+        void add(int id) {
+            if(size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+}
@@ -0,0 +1,409 @@
+package com.invariant.android.tasks;
+
+import androidx.annotation.NonNull;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Immutable ordered list of tasks stored in a persistent implicit treap (order statistics tree).
+ * Get by position takes O(log n) time. Changes (insert, remove, move,...) don't modify
+ * the list, they return a new version of it in O(log n) time. New version copies
+ * just the changed path and shares all other nodes with the old one.
+ *
+ * Every version is a stable snapshot. It can be read from any thread, without locking,
+ * while the next version is being built. Positions are implicit, derived from the sizes
+ * of the subtrees, so nothing is renumbered when tasks are inserted, removed or moved.
+ *
+ * Tasks don't know their position in this list. {@link Task#getPosition()} is just the
+ * persisted position, updated before the task is written (see {@link AppData}).
+ * Position of the task in the latest version is found from its {@link Entry} in O(log n) time,
+ * see {@link #positionOf(Entry)}.
+ */
+public final class TaskTree extends AbstractList<Task> {
+
+    /**
+     * Empty list.
+     */
+    static final TaskTree EMPTY = new TaskTree(null);
+
+    /**
+     * Generator of node priorities. Shared by all versions, it is thread safe.
+     */
+    private static final Random RANDOM = new Random();
+
+    /**
+     * Handle of one task in the list, which stays the same while the task is changed or moved.
+     * Every change copies the nodes on its path, the entry always points to the last copy
+     * of the node of its task. Used to find the position of the task without searching for it.
+     */
+    static final class Entry {
+        private Node node;
+
+        /**
+         * @return Task of the entry, the latest one set to the list.
+         */
+        Task getTask() {
+            return node.task;
+        }
+    }
+
+    /**
+     * One node of the treap. Nodes are ordered by position (in-order),
+     * and by {@link #priority} as a max-heap, which keeps the tree balanced.
+     *
+     * Fields are set only while the node is created (see {@link #build(Node[])}).
+     * Once the node is a part of some list they are never changed, except for {@link #parent}.
+     */
+    private static class Node {
+        Task task;
+        Entry entry;
+        int priority;
+        /**
+         * Number of nodes in the subtree rooted at this node.
+         */
+        int size;
+        Node left, right;
+        /**
+         * Parent of the node in the version that has been built last, null for its root.
+         * Nodes are shared by the versions, so it is overwritten by every node that takes this one
+         * as a child. Versions are built one from another and every intermediate tree is used
+         * just once, so the last node that takes this one is its parent in the last version.
+         * Read only by {@link #positionOf(Entry)}, never by the readers of the snapshots.
+         */
+        Node parent;
+
+        Node(Task task, Entry entry, int priority, Node left, Node right) {
+            this.task = task;
+            this.entry = entry;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = 1 + size(left) + size(right);
+            entry.node = this;
+            if(left != null) left.parent = this;
+            if(right != null) right.parent = this;
+        }
+
+        /**
+         * @return Copy of this node with the given children.
+         */
+        Node with(Node left, Node right) {
+            return new Node(task, entry, priority, left, right);
+        }
+    }
+
+    /**
+     * Root of the treap. Null if the list is empty.
+     */
+    private final Node root;
+
+    /**
+     * Constructor. Private, new versions are created by the changes of the existing ones.
+     * Start from {@link #EMPTY} or {@link #of(Collection)}.
+     */
+    private TaskTree(Node root) {
+        this.root = root;
+        if(root != null) root.parent = null;
+    }
+
+    /**
+     * @return List that contains all given tasks, in order. Built in linear time.
+     */
+    static TaskTree of(Collection<? extends Task> tasks) {
+        Node[] nodes = new Node[tasks.size()];
+        int idx = 0;
+        for(Task task : tasks) nodes[idx++] = new Node(task, new Entry(), RANDOM.nextInt(), null, null);
+        return new TaskTree(build(nodes));
+    }
+
+    /**
+     * @return Number of tasks in the list.
+     */
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    /**
+     * @return Task at the given position.
+     */
+    @Override
+    public Task get(int position) {
+        checkPosition(position, size());
+        Node node = root;
+        while(true) {
+            int leftSize = size(node.left);
+            if(position < leftSize) {
+                node = node.left;
+            } else if(position == leftSize) {
+                return node.task;
+            } else {
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * @return Entry of the task at the given position.
+     */
+    Entry getEntry(int position) {
+        checkPosition(position, size());
+        Node node = root;
+        while(true) {
+            int leftSize = size(node.left);
+            if(position < leftSize) {
+                node = node.left;
+            } else if(position == leftSize) {
+                return node.entry;
+            } else {
+                position -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    /**
+     * Fills the array with the entries of the first tasks, in order.
+     * @param entries Array to fill. Filled with the entries of the first entries.length tasks.
+     */
+    void getEntries(Entry[] entries) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        pushLeftPath(stack, root);
+        for(int idx = 0; idx < entries.length && !stack.isEmpty(); idx++) {
+            Node node = stack.pop();
+            pushLeftPath(stack, node.right);
+            entries[idx] = node.entry;
+        }
+    }
+
+    /**
+     * Finds the position of the task from its node, by going up to the root and adding
+     * the sizes of the subtrees before the path. Takes O(log n) time.
+     * Valid just for the last version built from this lineage, see {@link Node#parent}.
+     *
+     * @param entry Entry of the task. See {@link #getEntry(int)}.
+     * @return Position of the task or -1 if it isn't in this version.
+     */
+    int positionOf(Entry entry) {
+        Node node = entry.node;
+        int position = size(node.left);
+        while(node.parent != null) {
+            Node parent = node.parent;
+            if(node == parent.right) position += size(parent.left) + 1;
+            // Node of a removed task can keep the parent it had, which doesn't have it anymore
+            else if(node != parent.left) return -1;
+            node = parent;
+        }
+        return node == root ? position : -1;
+    }
+
+    /**
+     * @return New version of the list with the task at the given position replaced.
+     *         Task keeps its entry.
+     */
+    TaskTree withTask(int position, Task task) {
+        checkPosition(position, size());
+        return new TaskTree(replace(root, position, task));
+    }
+
+    /**
+     * @return New version of the list with the task inserted at the given position.
+     *         Tasks after it move one position down.
+     */
+    TaskTree withInserted(int position, Task task) {
+        checkPosition(position, size() + 1);
+        Node[] parts = split(root, position);
+        Node node = new Node(task, new Entry(), RANDOM.nextInt(), null, null);
+        return new TaskTree(merge(merge(parts[0], node), parts[1]));
+    }
+
+    /**
+     * @return New version of the list without the task at the given position.
+     *         Tasks after it move one position up.
+     */
+    TaskTree withRemoved(int position) {
+        checkPosition(position, size());
+        Node[] parts = split(root, position);
+        Node[] removed = split(parts[1], 1);
+        return new TaskTree(merge(parts[0], removed[1]));
+    }
+
+    /**
+     * @return New version of the list with the task moved from {@param fromPosition}
+     *         to {@param toPosition}. Tasks in between shift by one position.
+     */
+    TaskTree withMoved(int fromPosition, int toPosition) {
+        checkPosition(fromPosition, size());
+        checkPosition(toPosition, size());
+        if(fromPosition == toPosition) return this;
+
+        Node[] parts = split(root, fromPosition);
+        Node[] moved = split(parts[1], 1);
+        parts = split(merge(parts[0], moved[1]), toPosition);
+        return new TaskTree(merge(merge(parts[0], moved[0]), parts[1]));
+    }
+
+    /**
+     * @return New version of the list with all tasks of the given list appended to the end.
+     *         Takes O(log n) time.
+     */
+    TaskTree withAppended(TaskTree tasks) {
+        return new TaskTree(merge(root, tasks.root));
+    }
+
+    /**
+     * @return Iterator over the tasks in order. Whole iteration takes O(n) time.
+     */
+    @NonNull
+    @Override
+    public Iterator<Task> iterator() {
+        final ArrayDeque<Node> stack = new ArrayDeque<>();
+        pushLeftPath(stack, root);
+
+        return new Iterator<Task>() {
+            @Override
+            public boolean hasNext() {
+                return !stack.isEmpty();
+            }
+
+            @Override
+            public Task next() {
+                if(stack.isEmpty()) throw new NoSuchElementException();
+                Node node = stack.pop();
+                pushLeftPath(stack, node.right);
+                return node.task;
+            }
+        };
+    }
+
+    /**
+     * Reads tag ids of the first tasks in order, with one in-order walk of the tree.
+     * @param tagIds Array to fill. Filled with tag ids of the first tagIds.length tasks.
+     */
+    public void getTagIds(int[] tagIds) {
+        ArrayDeque<Node> stack = new ArrayDeque<>();
+        pushLeftPath(stack, root);
+        for(int idx = 0; idx < tagIds.length && !stack.isEmpty(); idx++) {
+            Node node = stack.pop();
+            pushLeftPath(stack, node.right);
+            tagIds[idx] = node.task.getTagId();
+        }
+    }
+
+    /**
+     * Pushes the given node and all its left descendants to the stack.
+     * The stack then holds nodes whose task and right subtree are not visited yet.
+     */
+    private static void pushLeftPath(ArrayDeque<Node> stack, Node node) {
+        while(node != null) {
+            stack.push(node);
+            node = node.left;
+        }
+    }
+
+    /**
+     * @return Copy of the subtree with the task at the given position replaced.
+     *         Only the nodes on the path to it are copied.
+     */
+    private static Node replace(Node node, int position, Task task) {
+        int leftSize = size(node.left);
+        if(position < leftSize) return node.with(replace(node.left, position, task), node.right);
+        if(position > leftSize) return node.with(node.left, replace(node.right, position - leftSize - 1, task));
+        return new Node(task, node.entry, node.priority, node.left, node.right);
+    }
+
+    /**
+     * Splits the tree into the first {@param count} nodes and the rest.
+     * Only the nodes on the split path are copied.
+     * @return Array of two roots: the first part and the second part.
+     */
+    private static Node[] split(Node node, int count) {
+        if(node == null) return new Node[] {null, null};
+        int leftSize = size(node.left);
+        if(count <= leftSize) {
+            Node[] parts = split(node.left, count);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        } else {
+            Node[] parts = split(node.right, count - leftSize - 1);
+            parts[0] = node.with(node.left, parts[0]);
+            return parts;
+        }
+    }
+
+    /**
+     * Joins two trees, all nodes of {@param left} come before the nodes of {@param right}.
+     * Only the nodes on the merge path are copied.
+     * @return Root of the joined tree.
+     */
+    private static Node merge(Node left, Node right) {
+        if(left == null) return right;
+        if(right == null) return left;
+        if(left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        } else {
+            return right.with(merge(left, right.left), right.right);
+        }
+    }
+
+    /**
+     * Builds a treap of the given new nodes, in order, in linear time.
+     * The right spine of the tree built so far is kept on the stack.
+     * Nodes are changed only here, before the tree is a part of any list.
+     * @return Root of the built tree.
+     */
+    private static Node build(Node[] nodes) {
+        ArrayDeque<Node> spine = new ArrayDeque<>();
+        for(Node node : nodes) {
+            Node last = null;
+            while(!spine.isEmpty() && spine.peek().priority < node.priority) {
+                last = spine.pop();
+                updateSize(last);
+            }
+            node.left = last;
+            if(last != null) last.parent = node;
+            if(!spine.isEmpty()) {
+                spine.peek().right = node;
+                node.parent = spine.peek();
+            }
+            spine.push(node);
+        }
+        // Sizes of the nodes on the spine are updated bottom up
+        Node node = null;
+        while(!spine.isEmpty()) {
+            node = spine.pop();
+            updateSize(node);
+        }
+        return node;
+    }
+
+    /**
+     * Recalculates the size of the node from its children.
+     */
+    private static void updateSize(Node node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    /**
+     * @return Size of the subtree, 0 for null.
+     */
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Throws if {@param position} isn't in the range [0, {@param end}).
+     */
+    private static void checkPosition(int position, int end) {
+        if(position < 0 || position >= end) {
+            throw new IndexOutOfBoundsException("Position: " + position + ", size: " + end);
+        }
+    }
+
+}
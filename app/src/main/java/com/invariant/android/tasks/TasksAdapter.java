@@ -1,93 +1,494 @@
 package com.invariant.android.tasks;
 
-import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
-import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.util.ArrayList;
+import com.invariant.android.tasks.database.TaskWindow;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
- * Handles item/row drawing and handles {@link View.OnTouchListener} {@code onTouch(...)}
- * method for each item
+ * Handles item/row drawing of the tasks RecyclerView.
+ *
+ * Shown tasks are an immutable snapshot (see {@link TaskTree}). Single changes of the tasks list
+ * are dispatched right away as the exact insert/remove/move/change notification. Snapshots that
+ * differ from the shown one just a little (filtered tasks after a change) are diffed against it
+ * on a background thread, like AsyncListDiffer does, and just the differences are dispatched.
+ * Snapshots that replace the shown one as a whole (filters, searches) are shown right away.
+ * Task ids are the stable item ids.
  */
-public class TasksAdapter extends ArrayAdapter<Task> implements View.OnTouchListener {
+public class TasksAdapter extends RecyclerView.Adapter<TasksAdapter.ViewHolder> {
+
 
+    /**
+     * Thread on which the snapshots are diffed. Diffs are computed one at a time, the older
+     * ones are skipped or stopped by their generation. See {@link #submit(TaskTree)}.
+     */
+    private static final ExecutorService DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+    /**
+     * Maximum difference of the sizes of the shown and the new snapshot that is diffed.
+     * Diff takes O(n * d) time for d differences, so larger changes just replace the snapshot.
+     */
+    private static final int MAX_DIFF_DELTA = 64;
+
+    /**
+     * Activity in which RecyclerView is used
+     */
+    private Activity context;
+    /**
+     * Handler of the main thread, where the diffs are dispatched.
+     */
+    private Handler mainHandler;
+    /**
+     * Snapshot of the tasks that is shown. Replaced only together with the notification of
+     * the RecyclerView, so it always sees the same data it has been notified about.
+     */
+    private TaskTree tasks;
+    /**
+     * Generation of the latest submitted snapshot and of the shown one. They differ while
+     * the diff of the latest snapshot is computed. Results of the older diffs are dropped.
+     */
+    private volatile int submittedGeneration;
+    private int shownGeneration;
+    /**
+     * Which tasks are shown.
+     *
+     * SHOW_ALL -            All tasks, in list order.
+     * SHOW_TIME_RANGE -     Tasks that overlap the time range from {@link #filterFrom}
+     *                       to {@link #filterTo}, ordered by start time.
+     * SHOW_SEARCH_RESULTS - Tasks found by the search, {@link #searchResults}.
+     * SHOW_TAGS -           Tasks that have any of the tags {@link #filterTagIds}, in list order.
+     */
+    private static final int SHOW_ALL = 0;
+    private static final int SHOW_TIME_RANGE = 1;
+    private static final int SHOW_SEARCH_RESULTS = 2;
+    private static final int SHOW_TAGS = 3;
 
     /**
-     * Constant for date formatting.
+     * See {@link #SHOW_ALL}, {@link #SHOW_TIME_RANGE}, {@link #SHOW_SEARCH_RESULTS} and {@link #SHOW_TAGS}.
      */
-    private static final String DATE_FORMAT = "dd/MM/yyyy";
+    private int showing;
+    private long filterFrom, filterTo;
+    private TaskTree searchResults;
+    private int[] filterTagIds;
 
     /**
-     * Height of one item/row in the ListView in pixels
+     * Height of one item/row in the RecyclerView in pixels
      */
     private int rowHeight;
     /**
-     * ID of the item that is currently being dragged.
-     * Equals to {@link Task#INVALID_ID} if no item is being dragged.
+     * Prepares the rows ahead of the scroll, see {@link #onScrolled(int, int, int)}.
+     */
+    private RowPrefetcher prefetcher;
+    /**
+     * True when the {@link #prefetcher} has the parameters of the title TextView.
      */
-    private int draggingItemId;
+    private boolean textParamsSet = false;
 
     /**
-     * Stores root view and coordinates of that view that have been touched most recently.
-     * Stored as a root view Tag. Use {@code view.getTag()} to get tag and
-     * {@code view.setTag(viewHolder)} to set tag.
-     *
-     * It is used to get coordinates from which item is dragged (as an additional data of the view).
+     * Interface for the custom listener for clicks on the tasks.
+     */
+    public interface OnTaskClickListener {
+        /**
+         * @param position Position of the clicked task in the shown tasks.
+         */
+        void onTaskClick(int position);
+    }
+    /**
+     * Listener of the clicks on the rows. Can be null.
+     */
+    private OnTaskClickListener onTaskClickListener;
+
+    /**
+     * Interface for the custom listener for the changes of the shown tasks.
+     */
+    public interface OnShownTasksChangedListener {
+        /**
+         * Called after the RecyclerView is notified about the new snapshot.
+         * @param change The single change of the list that has been dispatched,
+         *               or null if the whole snapshot has been replaced.
+         */
+        void onShownTasksChanged(TaskChange change);
+    }
+    /**
+     * Listener of the replaced snapshots. Can be null.
+     */
+    private OnShownTasksChangedListener onShownTasksChangedListener;
+
+    /**
+     * Holds the views of one row and the texts that are shown in them. Texts are compared
+     * before they are set, so a view is updated only if its text really changes.
      */
-    public static class ViewHolder {
+    static class ViewHolder extends RecyclerView.ViewHolder {
         RelativeLayout view;
-        public float lastTouchedX;
-        public float lastTouchedY;
+        TextView tvTitle, tvStartTime, tvEndTime;
+        String title, startTime, endTime;
 
         ViewHolder(View v) {
+            super(v);
             view = (RelativeLayout) v;
+            tvTitle = v.findViewById(R.id.tv_task_title);
+            tvStartTime = v.findViewById(R.id.tv_start_time);
+            tvEndTime = v.findViewById(R.id.tv_end_time);
         }
     }
 
     /**
      * Constructor. Sets all values to default.
      *
-     * @param context Activity in which listView is used
-     * @param items List of items to show in the ListView. Stores all data.
+     * @param context See {@link this#context}
      * @param rowHeight See {@link this#rowHeight}
      */
-    TasksAdapter(Activity context, ArrayList<Task> items, int rowHeight) {
-        super(context, 0, items);
+    TasksAdapter(Activity context, int rowHeight) {
+        this.context = context;
+        this.mainHandler = new Handler(Looper.getMainLooper());
+        this.tasks = getAppData().getTasks();
+        this.showing = SHOW_ALL;
         this.rowHeight = rowHeight;
-        draggingItemId = Task.INVALID_ID;
+        this.prefetcher = new RowPrefetcher();
+        setHasStableIds(true);
+    }
+
+    /**
+     * @return Number of all tasks. When tasks are paged, counts tasks that aren't loaded too.
+     */
+    @Override
+    public int getItemCount() {
+        TaskWindow taskWindow = getAppData().getTaskWindow();
+        if(taskWindow != null) return taskWindow.size();
+        return tasks.size();
+    }
+
+    /**
+     * @return Task at the given position. When tasks are paged, it is null until its page is loaded.
+     */
+    public Task getItem(int position) {
+        TaskWindow taskWindow = getAppData().getTaskWindow();
+        if(taskWindow != null) return taskWindow.get(position);
+        return tasks.get(position);
+    }
+
+    /**
+     * @return Id of the task at the given position, which is its stable id.
+     *         Rows that aren't loaded get unique negative ids, so they aren't taken for each other.
+     */
+    @Override
+    public long getItemId(int position) {
+        Task task = getItem(position);
+        return task == null ? -2L - position : task.getId();
+    }
+
+    /**
+     * Takes the latest snapshot of the tasks (filtered if the filter is set) and shows it
+     * in place of the shown one, without diffing. Used when the shown tasks are replaced as a whole.
+     * Search results aren't searched again, see {@link #setSearchResults(TaskTree)}.
+     */
+    void refresh() {
+        replace(getLatestTasks());
+    }
+
+    /**
+     * @return Latest snapshot of the tasks that should be shown, filtered if the filter is set.
+     */
+    private TaskTree getLatestTasks() {
+        switch (showing) {
+            case SHOW_TIME_RANGE:
+                return getAppData().getTasksOverlapping(filterFrom, filterTo);
+            case SHOW_SEARCH_RESULTS:
+                return searchResults;
+            case SHOW_TAGS:
+                return getAppData().getTasksWithAnyTag(filterTagIds);
+            default:
+                return getAppData().getTasks();
+        }
+    }
+
+    /**
+     * Shows the new snapshot right away and notifies the RecyclerView that everything has changed.
+     * Rows keep their views by the stable ids. Diffs that are still computed are dropped.
+     *
+     * @param newTasks Snapshot to show.
+     */
+    private void replace(TaskTree newTasks) {
+        show(newTasks, ++submittedGeneration);
+        notifyDataSetChanged();
+        notifyShownTasksChanged(null);
+    }
+
+    /**
+     * Shows the new snapshot that differs from the shown one just a little, e.g. the filtered tasks
+     * after one change. Differences to the shown snapshot are computed on {@link #DIFF_EXECUTOR}
+     * (without detecting moves) and dispatched on the main thread, unless a newer snapshot
+     * has been submitted in the meantime. Diff is stopped as soon as it is outdated.
+     * If the sizes differ by more than {@link #MAX_DIFF_DELTA}, or tasks are paged,
+     * the snapshot is replaced without diffing, see {@link #replace(TaskTree)}.
+     *
+     * @param newTasks Snapshot to show.
+     */
+    private void submit(final TaskTree newTasks) {
+        final TaskTree oldTasks = tasks;
+        if(newTasks == oldTasks) {
+            // Diff that is computed would change it to the older one
+            show(newTasks, ++submittedGeneration);
+            return;
+        }
+        if(getAppData().getTaskWindow() != null || oldTasks.isEmpty() || newTasks.isEmpty()
+                || Math.abs(newTasks.size() - oldTasks.size()) > MAX_DIFF_DELTA) {
+            replace(newTasks);
+            return;
+        }
+
+        final int generation = ++submittedGeneration;
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                if(generation != submittedGeneration) return;
+                final DiffUtil.DiffResult result;
+                try {
+                    result = DiffUtil.calculateDiff(new SnapshotDiff(oldTasks, newTasks, generation), false);
+                } catch (DiffOutdatedException e) {
+                    return;
+                }
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(generation != submittedGeneration) return;
+                        show(newTasks, generation);
+                        result.dispatchUpdatesTo(TasksAdapter.this);
+                        notifyShownTasksChanged(null);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Replaces the shown snapshot. The RecyclerView has to be notified right after.
+     */
+    private void show(TaskTree newTasks, int generation) {
+        tasks = newTasks;
+        shownGeneration = generation;
+    }
+
+    /**
+     * Thrown by the {@link SnapshotDiff} to stop the diff that is outdated.
+     */
+    private static class DiffOutdatedException extends RuntimeException {
     }
 
     /**
-     * Used on successful drag and drop. Moves the dropped element from previous
+     * Differences between two snapshots of the tasks. Items are the same if they are the same task,
+     * and their content is the same if all shown fields are equal.
+     * Both snapshots are copied to arrays first, so items are compared without tree lookups.
+     * Comparing stops with {@link DiffOutdatedException} when a newer snapshot is submitted.
+     */
+    private class SnapshotDiff extends DiffUtil.Callback {
+        private Task[] oldTasks, newTasks;
+        private int generation;
+
+        SnapshotDiff(TaskTree oldTasks, TaskTree newTasks, int generation) {
+            this.oldTasks = oldTasks.toArray(new Task[oldTasks.size()]);
+            this.newTasks = newTasks.toArray(new Task[newTasks.size()]);
+            this.generation = generation;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return oldTasks.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return newTasks.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            if(generation != submittedGeneration) throw new DiffOutdatedException();
+            return oldTasks[oldPosition].getId() == newTasks[newPosition].getId();
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            Task oldTask = oldTasks[oldPosition];
+            Task newTask = newTasks[newPosition];
+            return oldTask == newTask || oldTask.getDifferentFields(newTask) == 0;
+        }
+    }
+
+    /**
+     * Shows just the tasks whose time range overlaps the given one (both inclusive).
+     * Tasks are ordered by start time then, and can't be moved.
+     * @param from Start of the range in milliseconds.
+     * @param to End of the range in milliseconds.
+     */
+    void setTimeFilter(long from, long to) {
+        showing = SHOW_TIME_RANGE;
+        filterFrom = from;
+        filterTo = to;
+        refresh();
+    }
+
+    /**
+     * Shows just the tasks that have any of the given tags, in the list order.
+     * They can't be moved, as the rows between them are hidden.
+     * @param tagIds Ids of the tags. See {@link AppData#getTasksWithAnyTag(int[])}.
+     */
+    void setTagFilter(int[] tagIds) {
+        showing = SHOW_TAGS;
+        filterTagIds = tagIds;
+        refresh();
+    }
+
+    /**
+     * Shows just the given found tasks, in the given order. They can't be moved.
+     * @param results Tasks found by the search. See {@link AppData#searchTasks}.
+     */
+    void setSearchResults(TaskTree results) {
+        showing = SHOW_SEARCH_RESULTS;
+        searchResults = results;
+        refresh();
+    }
+
+    /**
+     * Shows all tasks again.
+     */
+    void clearFilter() {
+        showing = SHOW_ALL;
+        searchResults = null;
+        filterTagIds = null;
+        refresh();
+    }
+
+    /**
+     * @return True if just some of the tasks are shown, so positions aren't the list positions.
+     *         See {@link #setTimeFilter(long, long)}, {@link #setSearchResults(TaskTree)}
+     *         and {@link #setTagFilter(int[])}.
+     */
+    public boolean isFiltered() {
+        return showing != SHOW_ALL;
+    }
+
+    /**
+     * @return True if the tasks are paged, so rows come from the {@link TaskWindow}.
+     */
+    public boolean isPaged() {
+        return getAppData().getTaskWindow() != null;
+    }
+
+    /**
+     * @return True if the shown snapshot is the latest one submitted, so positions of the changes
+     *         of all tasks are positions in it. False while filtered, paged or diffing.
+     */
+    private boolean isShowingLatest() {
+        return !isFiltered() && getAppData().getTaskWindow() == null && shownGeneration == submittedGeneration;
+    }
+
+    /**
+     * Updates the shown tasks after the given change of the tasks list. If all tasks are shown and
+     * the shown snapshot is the one right before the change, just the changed row is notified.
+     * Otherwise the latest snapshot is diffed. See {@link #submit(TaskTree)}.
+     * Search results are updated in memory, see {@link AppData#updateSearchResults(TaskTree, TaskChange)}.
+     *
+     * @param change Change of the tasks list. See {@link AppData.OnTasksChangedListener}.
+     */
+    void onTasksChanged(TaskChange change) {
+        if(showing == SHOW_SEARCH_RESULTS) searchResults = getAppData().updateSearchResults(searchResults, change);
+        TaskTree latest = getAppData().getTasks();
+        int sizeChange = change.getType() == TaskChange.INSERTED ? 1 :
+                change.getType() == TaskChange.REMOVED ? -1 : 0;
+        // Loaded tasks could be appended to the latest snapshot and not yet shown
+        if(!isShowingLatest() || latest.size() != tasks.size() + sizeChange) {
+            submit(getLatestTasks());
+            return;
+        }
+
+        tasks = latest;
+        switch (change.getType()) {
+            case TaskChange.INSERTED:
+                notifyItemInserted(change.getToPosition());
+                break;
+            case TaskChange.REMOVED:
+                notifyItemRemoved(change.getFromPosition());
+                break;
+            case TaskChange.MOVED:
+                notifyItemMoved(change.getFromPosition(), change.getToPosition());
+                break;
+            case TaskChange.CHANGED:
+                notifyItemChanged(change.getToPosition());
+                break;
+        }
+        notifyShownTasksChanged(change);
+    }
+
+    /**
+     * Shows the tasks appended by the loader. If all tasks are shown and the shown snapshot
+     * is the one right before, the new rows are just inserted at the end.
+     *
+     * @param fromPosition Position of the first appended task.
+     * @param count Number of appended tasks.
+     */
+    void onTasksAppended(int fromPosition, int count) {
+        TaskTree latest = getAppData().getTasks();
+        if(!isShowingLatest() || tasks.size() != fromPosition || latest.size() != fromPosition + count) {
+            submit(getLatestTasks());
+            return;
+        }
+        tasks = latest;
+        notifyItemRangeInserted(fromPosition, count);
+        notifyShownTasksChanged(null);
+    }
+
+    /**
+     * @return Snapshot of the tasks that is currently shown. See {@link this#tasks}.
+     */
+    public TaskTree getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return Main application object with all global application data.
+     */
+    private AppData getAppData() {
+        return (AppData) context.getApplication();
+    }
+
+    /**
+     * Used while dragging. Moves the dragged element from previous
      * {@param fromPosition} to the new position {@param toPosition}.
      *
      * @param fromPosition Previous position
      * @param toPosition To position
      */
     public void moveItem(int fromPosition, int toPosition) {
+        if(isFiltered() || isPaged()) return;
         if(!isValidPosition(fromPosition) || !isValidPosition(toPosition)) return;
         if(fromPosition == toPosition) return;
-        ((AppData)((Activity) getContext()).getApplication()).moveItem(fromPosition, toPosition);
+        getAppData().moveItem(fromPosition, toPosition);
     }
 
     /**
-     * Checks if given {@param position} is valid for the current ListView
+     * Checks if given {@param position} is valid for the current RecyclerView
      *
      * @param position Position (index) in the list
      * @return true if position is valid, otherwise false
      */
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     private boolean isValidPosition(int position) {
-        return position >= 0 && position < getCount();
+        return position >= 0 && position < getItemCount();
     }
 
     /**
@@ -96,88 +497,141 @@ public class TasksAdapter extends ArrayAdapter<Task> implements View.OnTouchList
     public int getRowHeight() {
         return this.rowHeight;
     }
+
     /**
-     * Sets {@link this#draggingItemId} on the start of drag
+     * Prepares the rows that will be scrolled into view next on the background thread.
+     * Not used when tasks are paged. See {@link RowPrefetcher}.
      *
-     * @param id Id of the {@link Task} element that is being dragged in the list
+     * @param firstVisible Position of the first visible row.
+     * @param lastVisible Position of the last visible row.
+     * @param dy Scrolled distance in pixels, positive when scrolling down.
      */
-    public void setDraggingItem(int id) {
-        this.draggingItemId = id;
+    void onScrolled(int firstVisible, int lastVisible, int dy) {
+        if(getAppData().getTaskWindow() != null) return;
+        prefetcher.onScrolled(tasks, firstVisible, lastVisible, dy, rowHeight);
     }
+
+    /**
+     * Setter method for the listener.
+     * @param onTaskClickListener Custom listener. See {@link #onTaskClickListener}.
+     */
+    void setOnTaskClickListener(OnTaskClickListener onTaskClickListener) {
+        this.onTaskClickListener = onTaskClickListener;
+    }
+
     /**
-     * Resets all drag-helper variables as before drag
+     * Setter method for the listener.
+     * @param onShownTasksChangedListener Custom listener. See {@link #onShownTasksChangedListener}.
      */
-    public void draggingStopped() {
-        this.draggingItemId = Task.INVALID_ID;
+    void setOnShownTasksChangedListener(OnShownTasksChangedListener onShownTasksChangedListener) {
+        this.onShownTasksChangedListener = onShownTasksChangedListener;
     }
 
     /**
-     * Sets the look of the given item/row of the ListView.
+     * Calls the listener if it's set.
+     */
+    private void notifyShownTasksChanged(TaskChange change) {
+        if(onShownTasksChangedListener != null) onShownTasksChangedListener.onShownTasksChanged(change);
+    }
+
+    /**
+     * Creates the view of one item/row of the RecyclerView.
      *
-     * @param position Index of the current element in the list. Its data is being displayed.
-     * @param convertView Previous view displaying other element. Used for reusability of the views,
-     *                    performance optimization.
-     * @param container Container
-     * @return View that will be drawn.
+     * @param container RecyclerView
+     * @param viewType Type of the row, all rows are the same.
+     * @return Holder of the new row.
      */
     @NonNull
     @Override
-    public View getView(int position, View convertView, @NonNull ViewGroup container) {
-        View view;
-        ViewHolder vh;
-
-        if (convertView == null) {
-            view = LayoutInflater.from(container.getContext()).inflate(
-                    R.layout.list_item_task, container, false);
-            view.setOnTouchListener(this);
-
-            RelativeLayout root = view.findViewById(R.id.root);
-            ViewGroup.LayoutParams params = root.getLayoutParams();
-            if (params == null) {
-                params = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, rowHeight);
-            } else {
-                params.height = rowHeight;
-            }
-            root.setLayoutParams(params);
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup container, int viewType) {
+        View view = LayoutInflater.from(container.getContext()).inflate(
+                R.layout.list_item_task, container, false);
 
-            vh = new ViewHolder(view);
-            view.setTag(vh);
+        RelativeLayout root = view.findViewById(R.id.root);
+        ViewGroup.LayoutParams params = root.getLayoutParams();
+        if (params == null) {
+            params = new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, rowHeight);
         } else {
-            view = convertView;
-            vh = (ViewHolder) view.getTag();
+            params.height = rowHeight;
         }
+        root.setLayoutParams(params);
 
-        Task currentTask = getItem(position);
-        if(currentTask == null) return view;
-
-        ((TextView) vh.view.findViewById(R.id.tv_task_title)).setText(currentTask.getTitle());
-        ((TextView) vh.view.findViewById(R.id.tv_start_time)).setText(DateTimeConverter
-                .getDateTime(currentTask.getStart(), DATE_FORMAT));
-        ((TextView) vh.view.findViewById(R.id.tv_end_time)).setText(DateTimeConverter
-                .getDateTime(currentTask.getEnd(), DATE_FORMAT));
-
-        if(draggingItemId != currentTask.getId()) view.setVisibility(View.VISIBLE);
-        else view.setVisibility(View.INVISIBLE);
-
-        return view;
+        final ViewHolder vh = new ViewHolder(view);
+        // All titles are shown with the same parameters, so they are measured with the first ones
+        if(!textParamsSet) {
+            prefetcher.setTextParams(TextViewCompat.getTextMetricsParams(vh.tvTitle));
+            textParamsSet = true;
+        }
+        view.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                int position = vh.getAdapterPosition();
+                if(position == RecyclerView.NO_POSITION || onTaskClickListener == null) return;
+                onTaskClickListener.onTaskClick(position);
+            }
+        });
+        return vh;
     }
 
     /**
-     * Handles onTouch event for each ListView item.
+     * Sets the look of the given item/row of the RecyclerView. Views whose text is the same
+     * as the shown one aren't touched, so rebinding an unchanged task does nothing.
+     * If the row has been prepared by the {@link #prefetcher}, its values are just set.
+     * Otherwise nothing is allocated when the dates are cached, see {@link DateFormatter}.
      *
-     * @param v View that has been touched.
-     * @param event ID of the type of action (event) that has been performed on {@param view} touch
-     * @return false if touch event is not handled.
+     * @param vh Holder of the row.
+     * @param position Index of the current element in the list. Its data is being displayed.
      */
-    @SuppressLint("ClickableViewAccessibility")
     @Override
-    public boolean onTouch(View v, MotionEvent event) {
-        ViewHolder vh = (ViewHolder) v.getTag();
+    public void onBindViewHolder(@NonNull ViewHolder vh, int position) {
+        Task currentTask = getItem(position);
+        if(currentTask == null) {
+            // Task isn't loaded yet, recycled row must not show the task it was bound to before
+            bindPlaceholder(vh);
+            return;
+        }
 
-        vh.lastTouchedX = event.getX();
-        vh.lastTouchedY = event.getY();
+        RowPrefetcher.RowModel model = prefetcher.get(position, currentTask);
 
-        return false;
+        String title = currentTask.getTitle();
+        if(!title.equals(vh.title)) {
+            if(model != null && model.title != null) setTitle(vh.tvTitle, model.title);
+            else vh.tvTitle.setText(title);
+            vh.title = title;
+        }
+        // Cached strings of the same day are the same instance, compared without reading chars
+        String startTime = model != null ? model.startTime : DateFormatter.formatDate(currentTask.getStart());
+        if(!startTime.equals(vh.startTime)) {
+            vh.tvStartTime.setText(startTime);
+            vh.startTime = startTime;
+        }
+        String endTime = model != null ? model.endTime : DateFormatter.formatDate(currentTask.getEnd());
+        if(!endTime.equals(vh.endTime)) {
+            vh.tvEndTime.setText(endTime);
+            vh.endTime = endTime;
+        }
+    }
+
+    /**
+     * Clears all texts of the row whose task isn't loaded yet.
+     */
+    private static void bindPlaceholder(ViewHolder vh) {
+        vh.tvTitle.setText("");
+        vh.tvStartTime.setText("");
+        vh.tvEndTime.setText("");
+        vh.title = vh.startTime = vh.endTime = "";
+    }
+
+    /**
+     * Sets the title with the measured text layout, so the TextView doesn't measure it again.
+     * If the text has been measured with different parameters, it is set as plain text.
+     */
+    private static void setTitle(TextView tvTitle, PrecomputedTextCompat title) {
+        try {
+            TextViewCompat.setPrecomputedText(tvTitle, title);
+        } catch (IllegalArgumentException e) {
+            tvTitle.setText(title.toString());
+        }
     }
 
 }
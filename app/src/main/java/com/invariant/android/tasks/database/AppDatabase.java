@@ -2,14 +2,111 @@ package com.invariant.android.tasks.database;
 
 import androidx.room.Database;
 import androidx.room.RoomDatabase;
+import androidx.room.migration.Migration;
+import androidx.sqlite.db.SupportSQLiteDatabase;
 
+import com.invariant.android.tasks.Tag;
 import com.invariant.android.tasks.Task;
+import com.invariant.android.tasks.TaskFts;
 
 /**
  * Room DB Database component.
  * Change the version number when something changes in the DB.
  */
-@Database(entities = {Task.class}, version = 1)
+@Database(entities = {Task.class, Tag.class, TaskFts.class}, version = 5)
 public abstract class AppDatabase extends RoomDatabase {
     public abstract TaskDao taskDao();
+    public abstract TagDao tagDao();
+
+    /**
+     * Creates triggers that keep the {@link TaskFts} search index in sync with the Task table.
+     * Room creates the FTS table itself, but not triggers for the data of the other tables
+     * (tag names), so they are created on DB creation and in the migration.
+     * Tags are never renamed, so just the changes of the tasks are tracked.
+     */
+    static void createSearchTriggers(SupportSQLiteDatabase database) {
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS task_fts_insert AFTER INSERT ON Task BEGIN " +
+                "INSERT INTO TaskFts (rowid, task_title, tag_name) VALUES (NEW.id, NEW.task_title, " +
+                "(SELECT tag_name FROM Tag WHERE Tag.id = NEW.tag_id)); END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS task_fts_update " +
+                "AFTER UPDATE OF task_title, tag_id ON Task BEGIN " +
+                "UPDATE TaskFts SET task_title = NEW.task_title, " +
+                "tag_name = (SELECT tag_name FROM Tag WHERE Tag.id = NEW.tag_id) " +
+                "WHERE rowid = NEW.id; END");
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS task_fts_delete AFTER DELETE ON Task BEGIN " +
+                "DELETE FROM TaskFts WHERE rowid = OLD.id; END");
+    }
+
+    /**
+     * Adds rank column for ordering by sparse keys. Ranks are assigned on the first load.
+     */
+    static final Migration MIGRATION_1_2 = new Migration(1, 2) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("ALTER TABLE Task ADD COLUMN list_rank TEXT");
+        }
+    };
+
+    /**
+     * Adds indices for loading tasks in list order.
+     */
+    static final Migration MIGRATION_2_3 = new Migration(2, 3) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_list_position` " +
+                    "ON `Task` (`list_position`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_list_rank_list_position` " +
+                    "ON `Task` (`list_rank`, `list_position`)");
+        }
+    };
+
+    /**
+     * Moves tag names to the Tag table and replaces task tag strings with tag ids.
+     * SQLite can't drop a column, so the Task table is copied into a new one.
+     */
+    static final Migration MIGRATION_3_4 = new Migration(3, 4) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Tag` (`id` INTEGER NOT NULL, " +
+                    "`tag_name` TEXT, PRIMARY KEY(`id`))");
+            database.execSQL("CREATE UNIQUE INDEX IF NOT EXISTS `index_Tag_tag_name` ON `Tag` (`tag_name`)");
+            // Tag ids are assigned by SQLite, starting from 1
+            database.execSQL("INSERT INTO Tag (tag_name) SELECT DISTINCT task_tag FROM Task " +
+                    "WHERE task_tag IS NOT NULL AND task_tag != ''");
+
+            database.execSQL("CREATE TABLE IF NOT EXISTS `Task_new` (`id` INTEGER NOT NULL, " +
+                    "`list_position` INTEGER NOT NULL, `list_rank` TEXT, `task_title` TEXT, " +
+                    "`tag_id` INTEGER NOT NULL, `task_start_time` INTEGER NOT NULL, " +
+                    "`task_end_time` INTEGER NOT NULL, PRIMARY KEY(`id`))");
+            database.execSQL("INSERT INTO Task_new (id, list_position, list_rank, task_title, " +
+                    "tag_id, task_start_time, task_end_time) " +
+                    "SELECT id, list_position, list_rank, task_title, " +
+                    "COALESCE((SELECT Tag.id FROM Tag WHERE Tag.tag_name = Task.task_tag), 0), " +
+                    "task_start_time, task_end_time FROM Task");
+            database.execSQL("DROP TABLE Task");
+            database.execSQL("ALTER TABLE Task_new RENAME TO Task");
+
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_list_position` " +
+                    "ON `Task` (`list_position`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_list_rank_list_position` " +
+                    "ON `Task` (`list_rank`, `list_position`)");
+            database.execSQL("CREATE INDEX IF NOT EXISTS `index_Task_tag_id` ON `Task` (`tag_id`)");
+        }
+    };
+
+    /**
+     * Adds the {@link TaskFts} full-text search index, fills it with all tasks
+     * and creates the triggers that keep it in sync.
+     */
+    static final Migration MIGRATION_4_5 = new Migration(4, 5) {
+        @Override
+        public void migrate(SupportSQLiteDatabase database) {
+            database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `TaskFts` " +
+                    "USING FTS4(`task_title` TEXT, `tag_name` TEXT)");
+            database.execSQL("INSERT INTO TaskFts (rowid, task_title, tag_name) " +
+                    "SELECT Task.id, Task.task_title, Tag.tag_name FROM Task " +
+                    "LEFT JOIN Tag ON Tag.id = Task.tag_id");
+            createSearchTriggers(database);
+        }
+    };
 }
@@ -1,6 +1,7 @@
 package com.invariant.android.tasks.database;
 
 import android.app.Application;
+import android.util.SparseArray;
 
 import androidx.annotation.NonNull;
 import androidx.room.Room;
@@ -8,20 +9,66 @@ import androidx.room.RoomDatabase;
 import androidx.sqlite.db.SupportSQLiteDatabase;
 
 import com.invariant.android.tasks.AppData;
+import com.invariant.android.tasks.Tag;
 import com.invariant.android.tasks.Task;
 
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Handles all interaction with the local room DB.
  * All DB interaction muse be handled in the separate thread.
+ * All mutations go through the single-writer {@link WriteQueue}.
  * It interacts with the room DB Dao.
  */
 public class DatabaseHandler {
 
+    /**
+     * Ordering modes. Tells how the order of the tasks is persisted.
+     *
+     * ORDER_BY_POSITION - Dense {@link Task#getPosition()}. Move and delete shift positions
+     *                     of all tasks in between.
+     * ORDER_BY_RANK -     Sparse {@link Task#getRank()} keys (see {@link RankKeys}). Add, move and
+     *                     delete write just one row, except for occasional local rebalance.
+     */
+    public static final int ORDER_BY_POSITION = 0;
+    public static final int ORDER_BY_RANK = 1;
+
+    /**
+     * Maximum length of a rank. Longer ranks are rebalanced.
+     */
+    private static final int MAX_RANK_LENGTH = 16;
+    /**
+     * Number of tasks on each side of the crowded task that are rebalanced first.
+     */
+    private static final int REBALANCE_WINDOW = 16;
+
+    /**
+     * Number of tasks or tags inserted in one transaction when inserting in bulk.
+     */
+    private static final int INSERT_CHUNK_SIZE = 10000;
+
+    /**
+     * Lists with at least this many tasks aren't loaded whole, just a window of them
+     * is kept in memory (see {@link TaskWindow}). Used only when ordering by position.
+     */
+    private static final int PAGED_LOADING_MIN_TASKS = 200000;
+
+    /**
+     * Number of tasks loaded first, enough to fill the screen.
+     */
+    private static final int FIRST_LOAD_SIZE = 32;
+    /**
+     * Number of tasks in each following chunk of loaded tasks.
+     */
+    private static final int LOAD_CHUNK_SIZE = 1000;
+
+    /**
+     * Maximum number of tasks found by one search.
+     */
+    private static final int SEARCH_LIMIT = 500;
+
     /**
      * Object with global application data
      */
@@ -32,114 +79,466 @@ public class DatabaseHandler {
      */
     private AppDatabase db;
 
+    /**
+     * Queue through which all DB mutations are written. See {@link WriteQueue}.
+     */
+    private WriteQueue writeQueue;
+
+    /**
+     * Allocator of new task ids. Seeded from the DB.
+     */
+    private IdAllocator idAllocator;
+
+    /**
+     * Names and ids of all tags. Loaded from the DB.
+     */
+    private TagDictionary tagDictionary;
+
+    /**
+     * See {@link #ORDER_BY_POSITION} and {@link #ORDER_BY_RANK}.
+     */
+    private int orderingMode;
+
+    /**
+     * Ranks assigned after the tasks were loaded, by task id. Tasks in the published snapshots
+     * are never changed, so their own rank is outdated once a new one is assigned.
+     * See {@link #getRank(Task)}. Used only on the main thread.
+     */
+    private SparseArray<String> assignedRanks = new SparseArray<>();
+
+    /**
+     * True if the DB has just been created. Set by {@link #dbCreatedCallback}.
+     */
+    private volatile boolean databaseCreated = false;
+    /**
+     * Released when the DB is opened and, if new, filled with mock data.
+     * Reads outside of the writer thread wait for it.
+     */
+    private CountDownLatch databaseReady;
+
     /**
      * Constructor. Sets everything up.
      * @param context Application context
+     * @param orderingMode See {@link #orderingMode}
      */
-    public DatabaseHandler(Application context) {
+    public DatabaseHandler(Application context, int orderingMode) {
         appData = (AppData) context;
+        this.orderingMode = orderingMode;
         db = Room.databaseBuilder(context.getApplicationContext(),
                 AppDatabase.class, "db-tasks")
-                .addCallback(dbMockUpCallback)
+                .addMigrations(AppDatabase.MIGRATION_1_2, AppDatabase.MIGRATION_2_3,
+                        AppDatabase.MIGRATION_3_4, AppDatabase.MIGRATION_4_5)
+                .addCallback(dbCreatedCallback)
                 .build();
+        writeQueue = new WriteQueue(db);
+
+        // Open the DB on the writer and prepare it before anything else is read or written
+        idAllocator = new IdAllocator();
+        tagDictionary = new TagDictionary(writeQueue);
+        databaseReady = new CountDownLatch(1);
+        writeQueue.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                db.getOpenHelper().getWritableDatabase();
+                // TODO: remove when removing mocking
+                if(databaseCreated) insertSyntheticTasks(SyntheticDataGenerator.fromBuildConfig());
+                if(orderingMode == ORDER_BY_POSITION) repairPositions();
+
+                idAllocator.seed(db.taskDao().getMaxId());
+                tagDictionary.load(db.tagDao().getAll());
+                databaseReady.countDown();
+            }
+        });
     }
 
     /**
-     * Custom callback to mock db when it is created for the first time (onCreate)
-     *
-     * TODO: remove when removing mocking
+     * Callback for noticing when the DB is created for the first time (onCreate).
+     * Runs on the thread that opens the DB, which is always the writer (see the constructor).
      */
     @SuppressWarnings("FieldCanBeLocal")
-    private RoomDatabase.Callback dbMockUpCallback = new RoomDatabase.Callback() {
+    private RoomDatabase.Callback dbCreatedCallback = new RoomDatabase.Callback() {
         public void onCreate (@NonNull SupportSQLiteDatabase db) {
-            Random random = new Random();
-            int hourInMillis = 1000 * 60 * 60;
-            int cnt = 24;
-            for(int i = 0; i < cnt; i++) {
-                Task task = new Task(i, "Naziv" + i, System.currentTimeMillis(), System.currentTimeMillis()+hourInMillis);
-                task.setPosition(i);
-                if(random.nextInt(4) != 0) task.setTag("tag " + random.nextInt(cnt/2));
-                appData.addTask(task);
-            }
+            databaseCreated = true;
+            AppDatabase.createSearchTriggers(db);
         }
         public void onOpen (@NonNull SupportSQLiteDatabase db) {
 
         }
     };
 
+    /**
+     * Inserts all generated tags and then tasks in chunks, every chunk in a single transaction.
+     * Generator is configured by the build, see {@link SyntheticDataGenerator#fromBuildConfig()}.
+     * Must be called on the writer thread.
+     * @param generator Generator of the tasks.
+     */
+    private void insertSyntheticTasks(SyntheticDataGenerator generator) {
+        for(int fromTag = 0; fromTag < generator.getTagCount(); fromTag += INSERT_CHUNK_SIZE) {
+            final List<Tag> tags = generator.getTags(fromTag, INSERT_CHUNK_SIZE);
+            db.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    db.tagDao().insertAll(tags);
+                }
+            });
+        }
+        while(generator.hasNext()) {
+            final List<Task> chunk = generator.nextChunk(INSERT_CHUNK_SIZE);
+            db.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    db.taskDao().insertAll(chunk);
+                }
+            });
+        }
+    }
+
+    /**
+     * Renumbers the positions of all tasks to 0..n-1 in one transaction, if they aren't that already.
+     * Older versions left gaps on delete and could give two tasks the same position on add.
+     * Range shifts, keyset paging of the loader and the pages of the {@link TaskWindow} all
+     * need dense and unique positions. Ties are broken by id, so the order is kept where it is defined.
+     * Must be called on the writer thread, before any task is read.
+     */
+    private void repairPositions() {
+        final TaskDao taskDao = db.taskDao();
+        if(taskDao.countDensePositions() == taskDao.count()) return;
+        db.runInTransaction(new Runnable() {
+            @Override
+            public void run() {
+                List<Integer> ids = taskDao.getIdsByPosition();
+                for(int position = 0; position < ids.size(); position++) {
+                    taskDao.updatePosition(ids.get(position), position);
+                }
+            }
+        });
+    }
+
+    /**
+     * Getter method for {@link #tagDictionary}.
+     */
+    public TagDictionary getTagDictionary() {
+        return tagDictionary;
+    }
+
     /**
      * Loads all tasks and saves them into global task list variable.
+     * First screen of tasks is loaded and published first, so time to the first
+     * shown row doesn't depend on the DB size. Remaining tasks are streamed in chunks.
+     * Every chunk is published as a new snapshot (see {@link AppData#appendLoadedTasks(List, boolean)}).
+     * Lists with {@link #PAGED_LOADING_MIN_TASKS} or more tasks are paged instead
+     * (see {@link AppData#startPagedLoading()}).
      */
     public void loadAllTasks() {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                List<Task> tasks = db.taskDao().getAll();
-
-                // Sort tasks in ascending order
-                Collections.sort(tasks, new Comparator<Task>() {
-                    @Override
-                    public int compare(Task o1, Task o2) {
-                        return o1.getPosition() - o2.getPosition();
-                    }
-                });
-
-                for(Task task : tasks) {
-                    appData.getTasks().add(task);
+                try {
+                    databaseReady.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if(orderingMode == ORDER_BY_POSITION && db.taskDao().count() >= PAGED_LOADING_MIN_TASKS) {
+                    appData.startPagedLoading();
+                    return;
+                }
+                if(orderingMode == ORDER_BY_RANK && db.taskDao().countWithoutRank() > 0) {
+                    // Tasks from before ranks, all of them need new ranks at once
+                    loadAndRankAllTasks();
+                    return;
+                }
+
+                int requested = FIRST_LOAD_SIZE;
+                List<Task> chunk = orderingMode == ORDER_BY_RANK ?
+                        db.taskDao().getFirstByRank(requested) :
+                        db.taskDao().getPageByPosition(0, requested);
+                while(true) {
+                    boolean complete = chunk.size() < requested;
+                    Task last = chunk.isEmpty() ? null : chunk.get(chunk.size()-1);
+                    int lastPosition = last == null ? 0 : last.getPosition();
+                    String lastRank = last == null ? null : last.getRank();
+
+                    // Tasks are published as read, without dirty fields. Their stored positions aren't
+                    // brought up to date, in memory the position is implicit (see Task#position)
+                    publishTasks(chunk, complete);
+                    if(complete) return;
+
+                    // Keyset paging, each chunk continues from the last loaded task.
+                    // Positions are unique, so no task is skipped or loaded twice
+                    requested = LOAD_CHUNK_SIZE;
+                    chunk = orderingMode == ORDER_BY_RANK ?
+                            db.taskDao().getPageAfterRank(lastRank, requested) :
+                            db.taskDao().getPageByPosition(lastPosition+1, requested);
                 }
             }
         }).start();
     }
 
     /**
-     * Adds task to the DB.
-     * @param task Task to add to the DB.
+     * Loads all tasks at once and gives every task a new rank.
+     * Used just once, when the DB has tasks from before ranks.
+     * Must be called on a background thread.
      */
-    public void addTask(final Task task) {
-        new Thread(new Runnable() {
+    private void loadAndRankAllTasks() {
+        // Tasks without rank are first, ordered by position
+        List<Task> tasks = db.taskDao().getAllByRank();
+        String[] ranks = RankKeys.spread(tasks.size());
+        for(int idx = 0; idx < tasks.size(); idx++) {
+            Task task = tasks.get(idx);
+            task.setPosition(idx);
+            task.setRank(ranks[idx]);
+            writeQueue.update(task);
+            // Written, and not published yet
+            task.clearDirtyFields();
+        }
+        publishTasks(tasks, true);
+    }
+
+    /**
+     * Publishes loaded tasks to the global task list. Called on the loader thread,
+     * the next snapshot of the list is built here and the UI is notified on the main thread.
+     * @param tasks Loaded tasks, ordered, that follow already published ones.
+     * @param complete True if these are the last tasks.
+     */
+    private void publishTasks(List<Task> tasks, boolean complete) {
+        appData.appendLoadedTasks(tasks, complete);
+    }
+
+    /**
+     * Interface for the listener of the search results.
+     */
+    public interface OnSearchFinishedListener {
+        /**
+         * Called on the writer thread when the search is done.
+         * @param ids Ids of the found tasks, in no particular order.
+         */
+        void onSearchFinished(List<Integer> ids);
+    }
+
+    /**
+     * Searches the task titles and tag names for the words of the given text, using the
+     * full-text index. Every word has to match the beginning of some word in the title or tag.
+     * Runs on the writer thread, after all writes queued so far, so the results are up to date
+     * and they come in the order of the searches.
+     *
+     * @param text Text typed by the user.
+     * @param listener Listener for the results.
+     */
+    public void searchTaskIds(String text, final OnSearchFinishedListener listener) {
+        final String match = toMatchExpression(text);
+        writeQueue.runAfterWrites(new Runnable() {
             @Override
             public void run() {
-                db.taskDao().insertAll(task);
+                listener.onSearchFinished(match.isEmpty() ? new ArrayList<Integer>() :
+                        db.taskDao().searchIds(match, SEARCH_LIMIT));
             }
-        }).start();
+        });
+    }
+
+    /**
+     * @return FTS MATCH expression that matches all words of the text as prefixes, e.g.
+     *         {@code "buy*" "mil*"} for {@code buy mil}. Words are quoted, so the text can't
+     *         contain FTS operators. Empty if there are no words.
+     */
+    private static String toMatchExpression(String text) {
+        StringBuilder match = new StringBuilder();
+        for(String word : text.split("\\s+")) {
+            word = word.replace("\"", "");
+            if(word.isEmpty()) continue;
+            if(match.length() > 0) match.append(' ');
+            match.append('"').append(word).append("*\"");
+        }
+        return match.toString();
+    }
+
+    /**
+     * Opens paged view of the tasks for lists too large to be loaded whole.
+     * Used instead of loading all tasks, see {@link #loadAllTasks()}. Requires {@link #ORDER_BY_POSITION}.
+     */
+    public TaskWindow openTaskWindow() {
+        return new TaskWindow(db, writeQueue);
+    }
+
+    /**
+     * @return A valid {@link Task} ID for construction new {@link Task}.
+     *         Constant time, and correct no matter which tasks are loaded.
+     *         Can be called only after the tasks are loaded, see {@link IdAllocator#next()}.
+     */
+    public int getNextId() {
+        return idAllocator.next();
+    }
+
+    /**
+     * Adds task to the DB at its position. Tasks after it are shifted down.
+     * @param task Task to add to the DB. Copy that isn't in any snapshot, its rank is set here.
+     * @param tasks Ordered list of all tasks right after the task was added, for ranking.
+     *              Can be null when ordering by position.
+     */
+    public void addTask(Task task, List<Task> tasks) {
+        idAllocator.reserve(task.getId());
+        if(orderingMode == ORDER_BY_RANK) {
+            assignRank(task, tasks, task.getPosition());
+        } else {
+            // Matches nothing if the task is added to the end
+            writeQueue.shift(task.getPosition(), Integer.MAX_VALUE, 1);
+        }
+        writeQueue.insert(task);
     }
 
     /**
      * Updates task in the DB (based on primary key)
      * @param task Task to update.
      */
-    public void updateTask(final Task task) {
-        new Thread(new Runnable() {
+    public void updateTask(Task task) {
+        writeQueue.update(task);
+    }
+
+    /**
+     * Persists move of the task from {@param fromPosition} to {@param toPosition}.
+     * Only the rows between those positions are written, or just the moved one
+     * when ordering by rank.
+     * @param task Moved task, with its new position already set. Copy that isn't in any snapshot,
+     *             its rank is set here.
+     * @param tasks Ordered list of all tasks right after the move, for ranking.
+     *              Can be null when ordering by position.
+     */
+    public void moveTask(Task task, int fromPosition, int toPosition, List<Task> tasks) {
+        if(orderingMode == ORDER_BY_RANK) {
+            assignRank(task, tasks, toPosition);
+        } else if(fromPosition < toPosition) {
+            writeQueue.shift(fromPosition+1, toPosition, -1);
+        } else {
+            writeQueue.shift(toPosition, fromPosition-1, 1);
+        }
+        writeQueue.update(task);
+    }
+
+    /**
+     * Removes, deletes given task from the DB and closes the gap it leaves in positions.
+     * @param task Task to delete.
+     */
+    public void removeTask(Task task) {
+        assignedRanks.remove(task.getId());
+        writeQueue.delete(task);
+        if(orderingMode == ORDER_BY_POSITION) {
+            writeQueue.shift(task.getPosition()+1, Integer.MAX_VALUE, -1);
+        }
+    }
+
+    /**
+     * Adds the task to the end of the stored list. Used when tasks are paged, the position is
+     * counted on the writer thread, so tasks added before the {@link TaskWindow} reloads
+     * don't get the same position. Requires {@link #ORDER_BY_POSITION}.
+     * @param task Task to add. It isn't changed, its copy is stored.
+     */
+    public void appendStoredTask(Task task) {
+        idAllocator.reserve(task.getId());
+        final Task stored = new Task(task);
+        writeQueue.runWrite(new Runnable() {
             @Override
             public void run() {
-                db.taskDao().updateTask(task);
+                stored.setPosition(db.taskDao().count());
+                db.taskDao().insertAll(stored);
             }
-        }).start();
+        });
     }
 
     /**
-     * Updates all tasks in the DB (based on primary key).
+     * Removes the task with the given id from the DB and closes the gap it leaves in positions.
+     * Used when tasks are paged, the position is read from the stored row on the writer thread,
+     * as positions in the {@link TaskWindow} are outdated until it reloads.
+     * Nothing happens if the task has been removed already. Requires {@link #ORDER_BY_POSITION}.
+     * @param id Id of the task.
      */
-    public void updateAll() {
-        new Thread(new Runnable() {
+    public void removeStoredTask(final int id) {
+        writeQueue.runWrite(new Runnable() {
             @Override
             public void run() {
-                db.taskDao().updateAll(appData.getTasks());
+                TaskDao taskDao = db.taskDao();
+                Integer position = taskDao.getPosition(id);
+                if(position == null) return;
+                taskDao.deleteById(id);
+                taskDao.shiftPositions(position+1, Integer.MAX_VALUE, -1);
             }
-        }).start();
+        });
     }
 
     /**
-     * Removes, deletes given task from the DB
-     * @param task Task to delete.
+     * @return Current rank of the task. Rank of a task from a snapshot can be outdated,
+     *         see {@link #assignedRanks}.
      */
-    public void removeTask(final Task task) {
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                db.taskDao().delete(task);
+    public String getRank(Task task) {
+        return assignedRanks.get(task.getId(), task.getRank());
+    }
+
+    /**
+     * Sets rank of the task at the given position to the key between its neighbours.
+     * If keys there are too dense, rebalances the neighbourhood.
+     * Caller queues the write of the task itself.
+     *
+     * @param task Copy of the task at the position, which gets the rank.
+     * @param tasks Ordered list of all tasks, with the task already at its position.
+     * @param position Position of the task in the list.
+     */
+    private void assignRank(Task task, List<Task> tasks, int position) {
+        String lower = position > 0 ? getRank(tasks.get(position-1)) : null;
+        String upper = position < tasks.size()-1 ? getRank(tasks.get(position+1)) : null;
+        String rank = RankKeys.between(lower, upper);
+        task.setRank(rank);
+        assignedRanks.put(task.getId(), rank);
+        if(rank.length() > MAX_RANK_LENGTH) rebalanceRanks(task, tasks, position);
+    }
+
+    /**
+     * Spreads ranks around the given position evenly. Starts with {@link #REBALANCE_WINDOW}
+     * tasks on each side and doubles the window until new ranks are short enough,
+     * so the number of rewritten rows stays proportional to how crowded the keys are.
+     * Rewritten tasks are queued for update as copies, except the {@param task} at the
+     * {@param position}, which just gets its rank.
+     */
+    private void rebalanceRanks(Task task, List<Task> tasks, int position) {
+        String[] ranks;
+        int from, to;
+        int window = REBALANCE_WINDOW;
+        while(true) {
+            from = Math.max(0, position - window);
+            to = Math.min(tasks.size()-1, position + window);
+            if(from == 0 && to == tasks.size()-1) {
+                ranks = RankKeys.spread(tasks.size());
+                break;
             }
-        }).start();
+
+            ranks = new String[to - from + 1];
+            RankKeys.bisect(from > 0 ? getRank(tasks.get(from-1)) : null,
+                    to < tasks.size()-1 ? getRank(tasks.get(to+1)) : null,
+                    ranks, 0, ranks.length-1);
+            if(maxLength(ranks) <= MAX_RANK_LENGTH) break;
+            window *= 2;
+        }
+
+        for(int idx = from; idx <= to; idx++) {
+            String rank = ranks[idx - from];
+            if(idx == position) {
+                task.setRank(rank);
+            } else {
+                // Just the rank is written
+                Task rebalanced = new Task(tasks.get(idx));
+                rebalanced.setRank(rank);
+                rebalanced.markDirty(Task.FIELD_RANK);
+                writeQueue.update(rebalanced);
+            }
+            assignedRanks.put(tasks.get(idx).getId(), rank);
+        }
+    }
+
+    /**
+     * @return Length of the longest of the given keys.
+     */
+    private static int maxLength(String[] keys) {
+        int max = 0;
+        for(String key : keys) max = Math.max(max, key.length());
+        return max;
     }
 
 }
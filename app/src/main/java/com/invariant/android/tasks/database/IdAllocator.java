@@ -0,0 +1,58 @@
+package com.invariant.android.tasks.database;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out {@link com.invariant.android.tasks.Task} ids in constant time.
+ * It is seeded once with the largest id in the DB, so it doesn't depend on
+ * which tasks are loaded in memory. Thread safe.
+ */
+class IdAllocator {
+
+    /**
+     * Largest id that is taken.
+     */
+    private AtomicInteger maxId;
+    /**
+     * True when the allocator is seeded. Ids can't be handed out before that.
+     */
+    private volatile boolean seeded;
+
+    /**
+     * Constructor. Allocator has to be seeded before use. See {@link #seed(int)}.
+     */
+    IdAllocator() {
+        maxId = new AtomicInteger(0);
+        seeded = false;
+    }
+
+    /**
+     * Seeds the allocator.
+     * @param maxStoredId Largest id stored in the DB.
+     */
+    void seed(int maxStoredId) {
+        reserve(maxStoredId);
+        seeded = true;
+    }
+
+    /**
+     * Marks the given id as taken. Used for tasks created with already known ids.
+     */
+    void reserve(int id) {
+        while(true) {
+            int current = maxId.get();
+            if(current >= id || maxId.compareAndSet(current, id)) return;
+        }
+    }
+
+    /**
+     * @return New unique id. Never waits, it's called on the main thread.
+     * @throws IllegalStateException If the allocator isn't seeded yet. It is seeded before
+     *         the tasks are loaded, so ids taken after the load is complete are always valid.
+     */
+    int next() {
+        if(!seeded) throw new IllegalStateException("Ids are taken before the allocator is seeded");
+        return maxId.incrementAndGet();
+    }
+
+}
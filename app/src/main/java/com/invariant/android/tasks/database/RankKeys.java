@@ -0,0 +1,87 @@
+package com.invariant.android.tasks.database;
+
+/**
+ * Generates sparse lexicographic ordering keys (ranks) for tasks.
+ * Between any two keys there is always room for a new one, so placing a task
+ * between its neighbours doesn't require renumbering other tasks.
+ *
+ * Keys use digits 0-9 and a-z so their order is the same in Java and in SQLite.
+ * Generated keys never end with the lowest digit, which guarantees that there is
+ * always a key between two different keys.
+ */
+final class RankKeys {
+
+    /**
+     * Digits of the keys in ascending order.
+     */
+    private static final String DIGITS = "0123456789abcdefghijklmnopqrstuvwxyz";
+    private static final int BASE = DIGITS.length();
+
+    private RankKeys() {}
+
+    /**
+     * @param lower Key that the result must be after. Null or empty for no lower bound.
+     * @param upper Key that the result must be before. Null for no upper bound.
+     * @return Key strictly between {@param lower} and {@param upper}.
+     */
+    static String between(String lower, String upper) {
+        if(lower == null) lower = "";
+        StringBuilder key = new StringBuilder();
+        for(int i = 0; ; i++) {
+            int low = i < lower.length() ? DIGITS.indexOf(lower.charAt(i)) : 0;
+            int high = upper != null && i < upper.length() ? DIGITS.indexOf(upper.charAt(i)) : BASE;
+
+            if(high - low > 1) {
+                key.append(DIGITS.charAt((low + high) / 2));
+                return key.toString();
+            }
+            key.append(DIGITS.charAt(low));
+            // Key is now below the upper bound no matter what follows
+            if(high - low == 1) upper = null;
+        }
+    }
+
+    /**
+     * Fills {@param keys} (from {@param from} to {@param to}, inclusive) with keys evenly
+     * spread between {@param lower} and {@param upper} by bisecting the range.
+     * Bounds have the same meaning as in {@link #between(String, String)}.
+     */
+    static void bisect(String lower, String upper, String[] keys, int from, int to) {
+        if(from > to) return;
+        int middle = (from + to) >>> 1;
+        keys[middle] = between(lower, upper);
+        bisect(lower, keys[middle], keys, from, middle - 1);
+        bisect(keys[middle], upper, keys, middle + 1, to);
+    }
+
+    /**
+     * @param count Number of keys.
+     * @return {@param count} ascending keys of the same (shortest sufficient) length
+     *         evenly spread over the whole key space.
+     */
+    static String[] spread(int count) {
+        int width = 1;
+        long space = BASE;
+        while(space < (long) (count + 1) * BASE) {
+            space *= BASE;
+            width++;
+        }
+        long step = space / (count + 1);
+
+        String[] keys = new String[count];
+        char[] digits = new char[width];
+        for(int i = 0; i < count; i++) {
+            long value = (i + 1) * step;
+            for(int d = width - 1; d >= 0; d--) {
+                digits[d] = DIGITS.charAt((int) (value % BASE));
+                value /= BASE;
+            }
+            int length = width;
+            // Trailing lowest digits don't change the order
+            while(digits[length - 1] == DIGITS.charAt(0)) length--;
+            keys[i] = new String(digits, 0, length);
+        }
+        return keys;
+    }
+
+}
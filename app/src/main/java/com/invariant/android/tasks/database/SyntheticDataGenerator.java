@@ -0,0 +1,186 @@
+package com.invariant.android.tasks.database;
+
+import com.invariant.android.tasks.BuildConfig;
+import com.invariant.android.tasks.Tag;
+import com.invariant.android.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic tasks for mocking and load testing (10k, 100k, 1M tasks,...).
+ * Tasks and tags are generated in chunks so any number of them can be inserted without
+ * holding all of them in memory.
+ *
+ * Example: {@code new SyntheticDataGenerator(100000).setTagCount(500).setTagClustering(0.8f)}
+ * Generator used when the DB is created is configured by the build, see {@link #fromBuildConfig()}.
+ */
+public class SyntheticDataGenerator {
+
+    /**
+     * Hour and day expressed in milliseconds.
+     */
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = 24 * HOUR_IN_MILLIS;
+
+    /**
+     * Number of tasks to generate.
+     */
+    private int taskCount;
+    /**
+     * Number of different tags (tag cardinality).
+     */
+    private int tagCount;
+    /**
+     * Probability (0 - 1) that the task has the same tag as the previous tagged task.
+     * Higher values group tags into longer runs of adjacent tasks.
+     */
+    private float tagClustering;
+    /**
+     * Probability (0 - 1) that the task has no tag.
+     */
+    private float untaggedRatio;
+    /**
+     * Task start times are spread over the range starting at {@link #timeRangeStart}
+     * that is {@link #timeRangeLength} long (milliseconds).
+     */
+    private long timeRangeStart, timeRangeLength;
+    /**
+     * Maximum duration of the task (milliseconds).
+     */
+    private long maxDuration;
+
+    /**
+     * Random generator. Seeded, so the same configuration always generates the same data.
+     */
+    private Random random;
+    /**
+     * Number of already generated tasks.
+     */
+    private int generatedCount;
+    /**
+     * Tag of the last generated tagged task, -1 if there is none.
+     */
+    private int previousTag;
+
+    /**
+     * Constructor. Sets the defaults: half as many tags as tasks, no clustering, every fourth
+     * task without a tag and all tasks starting now and lasting up to one hour.
+     *
+     * @param taskCount See {@link #taskCount}
+     */
+    public SyntheticDataGenerator(int taskCount) {
+        this.taskCount = taskCount;
+        this.tagCount = Math.max(1, taskCount / 2);
+        this.tagClustering = 0;
+        this.untaggedRatio = 0.25f;
+        this.timeRangeStart = System.currentTimeMillis();
+        this.timeRangeLength = 0;
+        this.maxDuration = HOUR_IN_MILLIS;
+        this.random = new Random(taskCount);
+        this.generatedCount = 0;
+        this.previousTag = -1;
+    }
+
+    /**
+     * Creates the generator configured by the synthetic* properties of the build
+     * (see app/build.gradle), e.g. {@code -PsyntheticTaskCount=1000000 -PsyntheticTagCount=500}.
+     * Tasks start in the range from now to the given number of days later.
+     */
+    static SyntheticDataGenerator fromBuildConfig() {
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(BuildConfig.SYNTHETIC_TASK_COUNT)
+                .setTagClustering(BuildConfig.SYNTHETIC_TAG_CLUSTERING)
+                .setUntaggedRatio(BuildConfig.SYNTHETIC_UNTAGGED_RATIO)
+                .setTimeRange(System.currentTimeMillis(), BuildConfig.SYNTHETIC_TIME_RANGE_DAYS * DAY_IN_MILLIS)
+                .setMaxDuration(BuildConfig.SYNTHETIC_MAX_DURATION_HOURS * HOUR_IN_MILLIS);
+        if(BuildConfig.SYNTHETIC_TAG_COUNT > 0) generator.setTagCount(BuildConfig.SYNTHETIC_TAG_COUNT);
+        return generator;
+    }
+
+    /**
+     * Setter methods. Return this object for chaining.
+     */
+    public SyntheticDataGenerator setTagCount(int tagCount) {
+        this.tagCount = Math.max(1, tagCount);
+        return this;
+    }
+    public SyntheticDataGenerator setTagClustering(float tagClustering) {
+        this.tagClustering = tagClustering;
+        return this;
+    }
+    public SyntheticDataGenerator setUntaggedRatio(float untaggedRatio) {
+        this.untaggedRatio = untaggedRatio;
+        return this;
+    }
+    public SyntheticDataGenerator setTimeRange(long start, long length) {
+        this.timeRangeStart = start;
+        this.timeRangeLength = length;
+        return this;
+    }
+    public SyntheticDataGenerator setMaxDuration(long maxDuration) {
+        this.maxDuration = maxDuration;
+        return this;
+    }
+
+    /**
+     * @return true if not all tasks are generated yet.
+     */
+    boolean hasNext() {
+        return generatedCount < taskCount;
+    }
+
+    /**
+     * @return Number of all tags that generated tasks can have. See {@link #getTags(int, int)}.
+     */
+    int getTagCount() {
+        return tagCount;
+    }
+
+    /**
+     * Generates the given tags that generated tasks can have. Tag ids start from 1.
+     * @param fromTag Number of the first tag, from 0.
+     * @param maxCount Maximum number of generated tags.
+     * @return Generated tags.
+     */
+    List<Tag> getTags(int fromTag, int maxCount) {
+        int toTag = Math.min(tagCount, fromTag + maxCount);
+        List<Tag> tags = new ArrayList<>(Math.max(0, toTag - fromTag));
+        for(int tag = fromTag; tag < toTag; tag++) tags.add(new Tag(tag + 1, "tag " + tag));
+        return tags;
+    }
+
+    /**
+     * Generates next tasks. Ids start from 1 and positions from 0, in generation order.
+     * @param maxCount Maximum number of generated tasks.
+     * @return Generated tasks.
+     */
+    List<Task> nextChunk(int maxCount) {
+        int count = Math.min(maxCount, taskCount - generatedCount);
+        List<Task> tasks = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            int index = generatedCount++;
+
+            long start = timeRangeStart;
+            if(timeRangeLength > 0) start += (long) (random.nextDouble() * timeRangeLength);
+            long end = start + (long) (random.nextDouble() * maxDuration);
+
+            Task task = new Task(index + 1, "Naziv" + index, start, end);
+            task.setPosition(index);
+            if(random.nextFloat() >= untaggedRatio) task.setTagId(nextTag() + 1);
+            tasks.add(task);
+        }
+        return tasks;
+    }
+
+    /**
+     * @return Number of the tag for the next tagged task.
+     */
+    private int nextTag() {
+        if(previousTag < 0 || random.nextFloat() >= tagClustering) {
+            previousTag = random.nextInt(tagCount);
+        }
+        return previousTag;
+    }
+
+}
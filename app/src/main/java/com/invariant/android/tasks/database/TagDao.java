@@ -0,0 +1,30 @@
+package com.invariant.android.tasks.database;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.Query;
+
+import com.invariant.android.tasks.Tag;
+
+import java.util.List;
+
+/**
+ * Room DB DAO (data access objects) component for the tags.
+ */
+@Dao
+public interface TagDao {
+
+    /**
+     * @return All saved tags.
+     */
+    @Query("SELECT * FROM Tag")
+    List<Tag> getAll();
+
+    /**
+     * Inserts list of tags to the DB.
+     * @param tags List of tags to insert
+     */
+    @Insert
+    void insertAll(List<Tag> tags);
+
+}
@@ -0,0 +1,110 @@
+package com.invariant.android.tasks.database;
+
+import android.util.SparseArray;
+
+import com.invariant.android.tasks.Tag;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * In-memory map between tag names and tag ids. Tasks carry just the tag id
+ * (see {@link com.invariant.android.tasks.Task#getTagId()}) and names are resolved here,
+ * only when they are shown or typed. New tags get their ids right away and are
+ * written through the {@link WriteQueue}. Thread safe.
+ *
+ * Names aren't interned: tasks don't hold names at all, and tags of the tasks are compared
+ * by their ids, so there is nothing to share or to compare by identity.
+ */
+public class TagDictionary {
+
+    /**
+     * Queue through which new tags are written.
+     */
+    private WriteQueue writeQueue;
+
+    /**
+     * Tag ids mapped by tag name.
+     */
+    private HashMap<String, Integer> ids;
+    /**
+     * Tag names mapped by tag id.
+     */
+    private SparseArray<String> names;
+    /**
+     * Largest tag id that is taken.
+     */
+    private int maxId;
+
+    /**
+     * Constructor. Dictionary is empty until tags are loaded. See {@link #load(List)}.
+     * @param writeQueue See {@link #writeQueue}
+     */
+    TagDictionary(WriteQueue writeQueue) {
+        this.writeQueue = writeQueue;
+        ids = new HashMap<>();
+        names = new SparseArray<>();
+        maxId = Tag.NO_TAG_ID;
+    }
+
+    /**
+     * Adds all stored tags to the dictionary.
+     * @param tags Tags loaded from the DB.
+     */
+    synchronized void load(List<Tag> tags) {
+        for(Tag tag : tags) put(tag);
+    }
+
+    /**
+     * @param name Name of the tag.
+     * @return Id of the tag with the given name or {@link Tag#NO_TAG_ID} if the name is empty.
+     *         New tag is created (and queued for writing) if there is no such tag.
+     */
+    public synchronized int getId(String name) {
+        if(name == null || name.isEmpty()) return Tag.NO_TAG_ID;
+        Integer id = ids.get(name);
+        if(id == null) {
+            Tag tag = new Tag(maxId + 1, name);
+            put(tag);
+            writeQueue.insertTag(tag);
+            id = tag.getId();
+        }
+        return id;
+    }
+
+    /**
+     * @param id Id of the tag.
+     * @return Name of the tag or empty string for {@link Tag#NO_TAG_ID} and unknown ids.
+     */
+    public synchronized String getName(int id) {
+        return names.get(id, "");
+    }
+
+    /**
+     * @return All tags, ordered by name.
+     */
+    public synchronized List<Tag> getTags() {
+        List<Tag> tags = new ArrayList<>(names.size());
+        for(int i = 0; i < names.size(); i++) tags.add(new Tag(names.keyAt(i), names.valueAt(i)));
+        Collections.sort(tags, new Comparator<Tag>() {
+            @Override
+            public int compare(Tag a, Tag b) {
+                return a.getName().compareToIgnoreCase(b.getName());
+            }
+        });
+        return tags;
+    }
+
+    /**
+     * Adds the tag to both maps.
+     */
+    private void put(Tag tag) {
+        ids.put(tag.getName(), tag.getId());
+        names.put(tag.getId(), tag.getName());
+        maxId = Math.max(maxId, tag.getId());
+    }
+
+}
@@ -18,10 +18,92 @@ import java.util.List;
 public interface TaskDao {
 
     /**
-     * @return All entries (all rows) from the DB (all saved tasks).
+     * @return All entries (all rows) from the DB (all saved tasks), ordered by position.
      */
-    @Query("SELECT * FROM Task")
-    List<Task> getAll();
+    @Query("SELECT * FROM Task ORDER BY list_position")
+    List<Task> getAllByPosition();
+
+    /**
+     * @return Ids of all tasks ordered by position, tasks with the same position by id.
+     */
+    @Query("SELECT id FROM Task ORDER BY list_position, id")
+    List<Integer> getIdsByPosition();
+
+    /**
+     * @return Number of different positions in the range from 0 to n-1, for n tasks.
+     *         Positions are dense and unique exactly when it is equal to {@link #count()}.
+     */
+    @Query("SELECT COUNT(DISTINCT list_position) FROM Task " +
+            "WHERE list_position >= 0 AND list_position < (SELECT COUNT(*) FROM Task)")
+    int countDensePositions();
+
+    /**
+     * @return All entries (all rows) from the DB (all saved tasks), ordered by rank.
+     *         Tasks without rank are first, ordered by position.
+     */
+    @Query("SELECT * FROM Task ORDER BY list_rank, list_position")
+    List<Task> getAllByRank();
+
+    /**
+     * Keyset paging by position. Uses the position index, so every page is equally fast.
+     * Positions have to be dense and unique, see {@link DatabaseHandler}.
+     * @param fromPosition Position of the first task in the page.
+     * @param count Maximum number of tasks in the page.
+     * @return Tasks ordered by position.
+     */
+    @Query("SELECT * FROM Task WHERE list_position >= :fromPosition " +
+            "ORDER BY list_position LIMIT :count")
+    List<Task> getPageByPosition(int fromPosition, int count);
+
+    /**
+     * @param count Maximum number of tasks.
+     * @return First tasks ordered by rank.
+     */
+    @Query("SELECT * FROM Task ORDER BY list_rank LIMIT :count")
+    List<Task> getFirstByRank(int count);
+
+    /**
+     * Keyset paging by rank. Ranks are unique, so the page continues right after the given rank.
+     * @param rank Rank of the last task of the previous page.
+     * @param count Maximum number of tasks in the page.
+     * @return Tasks ordered by rank.
+     */
+    @Query("SELECT * FROM Task WHERE list_rank > :rank ORDER BY list_rank LIMIT :count")
+    List<Task> getPageAfterRank(String rank, int count);
+
+    /**
+     * @return Number of tasks that don't have a rank.
+     */
+    @Query("SELECT COUNT(*) FROM Task WHERE list_rank IS NULL")
+    int countWithoutRank();
+
+    /**
+     * Full-text search of the task titles and tag names. Uses the {@link com.invariant.android.tasks.TaskFts}
+     * index, so it doesn't scan the table.
+     * @param match FTS MATCH expression.
+     * @param count Maximum number of found tasks.
+     * @return Ids of the found tasks, in no particular order (by rowid, which is the task id).
+     */
+    @Query("SELECT rowid FROM TaskFts WHERE TaskFts MATCH :match LIMIT :count")
+    List<Integer> searchIds(String match, int count);
+
+    /**
+     * @return Largest task id in the DB or 0 if there are no tasks.
+     */
+    @Query("SELECT COALESCE(MAX(id), 0) FROM Task")
+    int getMaxId();
+
+    /**
+     * @return Position of the task with the given id or null if there is no such task.
+     */
+    @Query("SELECT list_position FROM Task WHERE id = :id")
+    Integer getPosition(int id);
+
+    /**
+     * @return Number of all tasks in the DB.
+     */
+    @Query("SELECT COUNT(*) FROM Task")
+    int count();
 
     /**
      * Updates task data in the DB based on it's id (primary key)
@@ -36,6 +118,32 @@ public interface TaskDao {
     @Update
     void updateAll(List<Task> tasks);
 
+    /**
+     * Updates just one column of the task with the given id.
+     * Used to write only the fields that have changed (see {@link Task#getDirtyFields()}).
+     */
+    @Query("UPDATE Task SET list_position = :position WHERE id = :id")
+    void updatePosition(int id, int position);
+    @Query("UPDATE Task SET list_rank = :rank WHERE id = :id")
+    void updateRank(int id, String rank);
+    @Query("UPDATE Task SET task_title = :title WHERE id = :id")
+    void updateTitle(int id, String title);
+    @Query("UPDATE Task SET tag_id = :tagId WHERE id = :id")
+    void updateTag(int id, int tagId);
+    @Query("UPDATE Task SET task_start_time = :start WHERE id = :id")
+    void updateStart(int id, long start);
+    @Query("UPDATE Task SET task_end_time = :end WHERE id = :id")
+    void updateEnd(int id, long end);
+
+    /**
+     * Adds {@param offset} to the position of every task with the position
+     * between {@param fromPosition} and {@param toPosition} (inclusive).
+     * Used to persist a move or a delete without rewriting the whole table.
+     */
+    @Query("UPDATE Task SET list_position = list_position + :offset " +
+            "WHERE list_position BETWEEN :fromPosition AND :toPosition")
+    void shiftPositions(int fromPosition, int toPosition, int offset);
+
     /**
      * Inserts list of tasks to the DB.
      * @param tasks List of tasks to insert
@@ -43,6 +151,13 @@ public interface TaskDao {
     @Insert
     void insertAll(Task... tasks);
 
+    /**
+     * Inserts list of tasks to the DB.
+     * @param tasks List of tasks to insert
+     */
+    @Insert
+    void insertAll(List<Task> tasks);
+
     /**
      * Delete given task from the DB.
      * @param task Task to delete.
@@ -50,4 +165,17 @@ public interface TaskDao {
     @Delete
     void delete(Task task);
 
+    /**
+     * Delete the task with the given id from the DB.
+     */
+    @Query("DELETE FROM Task WHERE id = :id")
+    void deleteById(int id);
+
+    /**
+     * Delete list of tasks from the DB (based on the id).
+     * @param tasks List of tasks to delete.
+     */
+    @Delete
+    void deleteAll(List<Task> tasks);
+
 }
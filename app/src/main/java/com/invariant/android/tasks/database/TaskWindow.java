@@ -0,0 +1,255 @@
+package com.invariant.android.tasks.database;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.SparseArray;
+
+import com.invariant.android.tasks.Task;
+
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Paged, windowed view of the tasks stored in the DB.
+ * Only pages around the visible range (plus prefetch margins) are kept in memory,
+ * all others are evicted. Pages are loaded with keyset paging on the task position,
+ * so it requires {@link DatabaseHandler#ORDER_BY_POSITION}. Positions are dense and unique
+ * (they are repaired when the DB is opened, and every write keeps them that way),
+ * so the page with the index p starts at the position p * {@link #PAGE_SIZE}.
+ *
+ * All methods must be called on the main thread. Pages are read on the DB writer thread,
+ * after all writes queued before them, so the window never shows older data than it wrote.
+ */
+public class TaskWindow {
+
+    /**
+     * Number of tasks in one page.
+     */
+    private static final int PAGE_SIZE = 50;
+    /**
+     * Number of pages loaded and kept before and after visible pages.
+     */
+    private static final int PREFETCH_PAGES = 2;
+
+    /**
+     * Interface for the custom listener called when loaded data changes.
+     */
+    public interface OnWindowChangedListener {
+        void onWindowChanged();
+    }
+
+    /**
+     * DB object. Used to interact with DB.
+     */
+    private AppDatabase db;
+    /**
+     * Queue after which pages are read. See {@link WriteQueue#runAfterWrites(Runnable)}.
+     */
+    private WriteQueue writeQueue;
+    /**
+     * Handler for posting loaded pages to the main thread.
+     */
+    private Handler mainHandler;
+
+    /**
+     * Loaded pages mapped by page index.
+     */
+    private SparseArray<List<Task>> pages;
+    /**
+     * Indices of pages that are being loaded.
+     */
+    private HashSet<Integer> loadingPages;
+    /**
+     * Incremented on every invalidation. Pages loaded for older generations are dropped.
+     */
+    private int generation;
+
+    /**
+     * Total number of tasks in the DB.
+     */
+    private int size;
+    /**
+     * First and last page that are kept in memory.
+     */
+    private int firstWindowPage, lastWindowPage;
+
+    /**
+     * Listener. See {@link OnWindowChangedListener}.
+     */
+    private OnWindowChangedListener onWindowChangedListener = null;
+
+    /**
+     * Constructor. Sets everything up and starts loading the first pages.
+     */
+    TaskWindow(AppDatabase db, WriteQueue writeQueue) {
+        this.db = db;
+        this.writeQueue = writeQueue;
+        mainHandler = new Handler(Looper.getMainLooper());
+        pages = new SparseArray<>();
+        loadingPages = new HashSet<>();
+        generation = 0;
+        size = 0;
+        firstWindowPage = 0;
+        lastWindowPage = PREFETCH_PAGES;
+        invalidate();
+    }
+
+    /**
+     * @return Total number of tasks.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the task at the given position and starts loading its page if needed.
+     * @return Task or null if it isn't loaded yet.
+     */
+    public Task get(int position) {
+        Task task = peek(position);
+        if(task == null && position >= 0 && position < size) requestPage(position / PAGE_SIZE);
+        return task;
+    }
+
+    /**
+     * @return Task at the given position or null if it isn't loaded. Never loads anything.
+     */
+    public Task peek(int position) {
+        if(position < 0) return null;
+        List<Task> page = pages.get(position / PAGE_SIZE);
+        if(page == null || position % PAGE_SIZE >= page.size()) return null;
+        return page.get(position % PAGE_SIZE);
+    }
+
+    /**
+     * Replaces the loaded task at the given position. Does nothing if it isn't loaded.
+     */
+    public void set(int position, Task task) {
+        List<Task> page = pages.get(position / PAGE_SIZE);
+        if(page == null || position % PAGE_SIZE >= page.size()) return;
+        page.set(position % PAGE_SIZE, task);
+    }
+
+    /**
+     * @return First position covered by the kept pages.
+     */
+    public int getWindowStart() {
+        return firstWindowPage * PAGE_SIZE;
+    }
+    /**
+     * @return Position after the last one covered by the kept pages.
+     */
+    public int getWindowEnd() {
+        return Math.min(size, (lastWindowPage + 1) * PAGE_SIZE);
+    }
+
+    /**
+     * Moves the window so it covers given visible positions with prefetch margins.
+     * Loads missing pages and evicts pages outside of the window.
+     */
+    public void setVisibleRange(int firstPosition, int lastPosition) {
+        firstWindowPage = Math.max(0, firstPosition / PAGE_SIZE - PREFETCH_PAGES);
+        lastWindowPage = Math.max(firstWindowPage, lastPosition / PAGE_SIZE + PREFETCH_PAGES);
+        updatePages();
+    }
+
+    /**
+     * Evicts pages outside of the window and loads missing pages inside of it.
+     */
+    private void updatePages() {
+        for(int idx = pages.size()-1; idx >= 0; idx--) {
+            int page = pages.keyAt(idx);
+            if(page < firstWindowPage || page > lastWindowPage) pages.removeAt(idx);
+        }
+        for(int page = firstWindowPage; page <= lastWindowPage && page * PAGE_SIZE < size; page++) {
+            if(pages.get(page) == null) requestPage(page);
+        }
+    }
+
+    /**
+     * Reloads the size and all kept pages. Used after the data is changed in the DB.
+     * Old pages stay visible until new ones are loaded.
+     */
+    public void invalidate() {
+        generation++;
+        loadingPages.clear();
+        final int loadGeneration = generation;
+        final int firstPage = firstWindowPage;
+        final int lastPage = lastWindowPage;
+
+        writeQueue.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                final int count = db.taskDao().count();
+                final SparseArray<List<Task>> loaded = new SparseArray<>();
+                for(int page = firstPage; page <= lastPage && page * PAGE_SIZE < count; page++) {
+                    loaded.put(page, loadPage(page));
+                }
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration != generation) return;
+                        size = count;
+                        pages = loaded;
+                        // Window could have moved in the meantime
+                        updatePages();
+                        notifyWindowChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Starts loading of the given page if it isn't already being loaded.
+     */
+    private void requestPage(final int page) {
+        if(page < firstWindowPage || page > lastWindowPage) return;
+        if(!loadingPages.add(page)) return;
+        final int loadGeneration = generation;
+
+        writeQueue.runAfterWrites(new Runnable() {
+            @Override
+            public void run() {
+                final List<Task> rows = loadPage(page);
+
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(loadGeneration != generation) return;
+                        loadingPages.remove(page);
+                        // Page could have left the window while loading
+                        if(page < firstWindowPage || page > lastWindowPage) return;
+                        pages.put(page, rows);
+                        notifyWindowChanged();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the given page from the DB. Must be called on the DB writer thread.
+     * @return Loaded tasks, without dirty fields.
+     */
+    private List<Task> loadPage(int page) {
+        return db.taskDao().getPageByPosition(page * PAGE_SIZE, PAGE_SIZE);
+    }
+
+    /**
+     * Calls the listener if it's set.
+     */
+    private void notifyWindowChanged() {
+        if(onWindowChangedListener != null) onWindowChangedListener.onWindowChanged();
+    }
+
+    /**
+     * Setter method for the listener.
+     * @param onWindowChangedListener Custom listener. See {@link #onWindowChangedListener}.
+     */
+    public void setOnWindowChangedListener(OnWindowChangedListener onWindowChangedListener) {
+        this.onWindowChangedListener = onWindowChangedListener;
+    }
+
+}
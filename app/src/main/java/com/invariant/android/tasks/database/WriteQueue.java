@@ -0,0 +1,350 @@
+package com.invariant.android.tasks.database;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.invariant.android.tasks.Tag;
+import com.invariant.android.tasks.Task;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single-writer queue for all DB mutations.
+ * Mutations are queued in order and executed on one dedicated thread.
+ * Redundant mutations of the same task are coalesced (e.g. several updates collapse
+ * into the last one) and every batch is written in one transaction.
+ */
+class WriteQueue {
+
+    /**
+     * Types of the queued operations. {@link #NONE} means that operations cancelled each other.
+     */
+    static final int NONE = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int SHIFT = 4;
+    static final int INSERT_TAG = 5;
+
+    /**
+     * One queued operation. Either over one task, {@link #SHIFT} of the range of positions
+     * or {@link #INSERT_TAG} of a new tag.
+     */
+    private static class Operation {
+        int type;
+        Task task;
+        int fromPosition, toPosition, offset;
+        Tag tag;
+
+        Operation(int type, Task task) {
+            this.type = type;
+            this.task = task;
+        }
+    }
+
+    /**
+     * DB object. Used to interact with DB.
+     */
+    private AppDatabase db;
+
+    /**
+     * The only thread that writes to the DB.
+     */
+    private ExecutorService writer;
+
+    /**
+     * Operations waiting for the next flush, in order.
+     * Guarded by {@link #lock}.
+     */
+    private ArrayList<Operation> pending;
+    /**
+     * Task operations queued after the last {@link #SHIFT}, mapped by task id.
+     * Only these can be coalesced, as shift depends on the rows written before it.
+     * Guarded by {@link #lock}.
+     */
+    private HashMap<Integer, Operation> coalescable;
+    /**
+     * True if flush is already scheduled on the {@link #writer}.
+     * Guarded by {@link #lock}.
+     */
+    private boolean flushScheduled;
+    private final Object lock = new Object();
+
+    /**
+     * Constructor. Sets everything up.
+     * @param db See {@link #db}
+     */
+    WriteQueue(AppDatabase db) {
+        this(db, Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Constructor with the given writer.
+     * @param db See {@link #db}
+     * @param writer See {@link #writer}. Must run the tasks one by one, in order.
+     */
+    @VisibleForTesting
+    WriteQueue(AppDatabase db, ExecutorService writer) {
+        this.db = db;
+        this.writer = writer;
+        pending = new ArrayList<>();
+        coalescable = new HashMap<>();
+        flushScheduled = false;
+    }
+
+    /**
+     * Queues insertion of the given task.
+     */
+    void insert(Task task) {
+        enqueue(INSERT, task);
+    }
+
+    /**
+     * Queues update of the dirty fields of the given task (based on primary key).
+     * Does nothing if the task has no dirty fields. The task is left as it is, see {@link #enqueue}.
+     */
+    void update(Task task) {
+        enqueue(UPDATE, task);
+    }
+
+    /**
+     * Queues deletion of the given task.
+     */
+    void delete(Task task) {
+        enqueue(DELETE, task);
+    }
+
+    /**
+     * Queues shift of the position of every task in the given range (inclusive).
+     * @param offset Value added to every position in the range.
+     */
+    void shift(int fromPosition, int toPosition, int offset) {
+        if(fromPosition > toPosition) return;
+        Operation operation = new Operation(SHIFT, null);
+        operation.fromPosition = fromPosition;
+        operation.toPosition = toPosition;
+        operation.offset = offset;
+        synchronized (lock) {
+            pending.add(operation);
+            coalescable.clear();
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Queues insertion of the given tag. Tags are never coalesced.
+     */
+    void insertTag(Tag tag) {
+        Operation operation = new Operation(INSERT_TAG, null);
+        operation.tag = tag;
+        synchronized (lock) {
+            pending.add(operation);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Runs the given DB read on the writer thread, after all writes queued so far.
+     */
+    void runAfterWrites(Runnable read) {
+        writer.execute(read);
+    }
+
+    /**
+     * Runs the given write on the writer thread in one transaction, after all writes queued so far.
+     * Used for the writes that depend on the stored rows, e.g. on the current position of a task,
+     * so they are computed from the DB instead of from a possibly outdated copy of the list.
+     * Never coalesced.
+     */
+    void runWrite(final Runnable write) {
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                db.runInTransaction(write);
+            }
+        });
+    }
+
+    /**
+     * @return Number of the operations waiting for the next flush, with the cancelled ones.
+     */
+    @VisibleForTesting
+    int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return Type of the pending operation at the given index, in order. See {@link #NONE}.
+     */
+    @VisibleForTesting
+    int getPendingType(int idx) {
+        synchronized (lock) {
+            return pending.get(idx).type;
+        }
+    }
+
+    /**
+     * @return Copy of the task that the pending operation at the given index writes,
+     *         or null for the operations that aren't over one task.
+     */
+    @VisibleForTesting
+    Task getPendingTask(int idx) {
+        synchronized (lock) {
+            return pending.get(idx).task;
+        }
+    }
+
+    /**
+     * Coalesces the given operation with the operation already pending for the same task
+     * and schedules flush if needed.
+     * The queue writes its own copy of the task, with the same dirty fields, so later changes
+     * to the task can't tear the write. The task itself isn't changed, it can be in a published
+     * snapshot. Caller clears its dirty fields if it keeps changing it.
+     */
+    private void enqueue(int type, Task task) {
+        if(type == UPDATE && !task.isDirty()) return;
+        Task snapshot = new Task(task);
+        snapshot.markDirty(task.getDirtyFields());
+        synchronized (lock) {
+            Operation previous = coalescable.get(snapshot.getId());
+            if(previous == null) {
+                Operation operation = new Operation(type, snapshot);
+                pending.add(operation);
+                coalescable.put(snapshot.getId(), operation);
+            } else {
+                int merged = merge(previous.type, type);
+                // Update has to write everything that any of the merged operations would
+                if(merged == UPDATE) {
+                    snapshot.markDirty(previous.type == DELETE ?
+                            Task.ALL_FIELDS : previous.task.getDirtyFields());
+                }
+                // Cancelled operation stays in the list as NONE and is skipped on flush
+                previous.type = merged;
+                previous.task = snapshot;
+                if(previous.type == NONE) coalescable.remove(snapshot.getId());
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Schedules flush on the {@link #writer} if it isn't scheduled already.
+     * Must be called while holding {@link #lock}.
+     */
+    private void scheduleFlush() {
+        if(flushScheduled) return;
+        flushScheduled = true;
+        writer.execute(flushRunnable);
+    }
+
+    /**
+     * @param previous Type of the operation that is already pending.
+     * @param next Type of the newly queued operation.
+     * @return Type of the one operation that has the same effect as both of them.
+     */
+    private static int merge(int previous, int next) {
+        switch (previous) {
+            case INSERT:
+                // Task never reached the DB so there is nothing to delete
+                return next == DELETE ? NONE : INSERT;
+            case DELETE:
+                // Row still exists in the DB so it only needs new values
+                return next == INSERT ? UPDATE : DELETE;
+            default:
+                return next == DELETE ? DELETE : UPDATE;
+        }
+    }
+
+    /**
+     * Writes all pending operations in one transaction.
+     * Task operations between two shifts are written together.
+     * New tags are written first, before the tasks that reference them.
+     */
+    private Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final ArrayList<Operation> batch;
+            synchronized (lock) {
+                batch = pending;
+                pending = new ArrayList<>();
+                coalescable.clear();
+                flushScheduled = false;
+            }
+            if(batch.isEmpty()) return;
+
+            db.runInTransaction(new Runnable() {
+                @Override
+                public void run() {
+                    List<Tag> tags = new ArrayList<>();
+                    for(Operation operation : batch) {
+                        if(operation.type == INSERT_TAG) tags.add(operation.tag);
+                    }
+                    if(!tags.isEmpty()) db.tagDao().insertAll(tags);
+
+                    List<Task> inserts = new ArrayList<>();
+                    List<Task> updates = new ArrayList<>();
+                    List<Task> deletes = new ArrayList<>();
+                    for(Operation operation : batch) {
+                        switch (operation.type) {
+                            case INSERT:
+                                inserts.add(operation.task);
+                                break;
+                            case UPDATE:
+                                updates.add(operation.task);
+                                break;
+                            case DELETE:
+                                deletes.add(operation.task);
+                                break;
+                            case SHIFT:
+                                writeTasks(inserts, updates, deletes);
+                                db.taskDao().shiftPositions(operation.fromPosition,
+                                        operation.toPosition, operation.offset);
+                                break;
+                        }
+                    }
+                    writeTasks(inserts, updates, deletes);
+                }
+            });
+        }
+    };
+
+    /**
+     * Writes and clears given lists of tasks.
+     * Tasks with all fields dirty are updated whole, others just by changed columns.
+     */
+    private void writeTasks(List<Task> inserts, List<Task> updates, List<Task> deletes) {
+        if(!deletes.isEmpty()) db.taskDao().deleteAll(deletes);
+
+        List<Task> fullUpdates = new ArrayList<>();
+        for(Task task : updates) {
+            if(task.getDirtyFields() == Task.ALL_FIELDS) fullUpdates.add(task);
+            else updateDirtyFields(task);
+        }
+        if(!fullUpdates.isEmpty()) db.taskDao().updateAll(fullUpdates);
+
+        if(!inserts.isEmpty()) db.taskDao().insertAll(inserts);
+        inserts.clear();
+        updates.clear();
+        deletes.clear();
+    }
+
+    /**
+     * Writes just the dirty columns of the given task.
+     */
+    private void updateDirtyFields(Task task) {
+        TaskDao dao = db.taskDao();
+        int fields = task.getDirtyFields();
+        if((fields & Task.FIELD_POSITION) != 0) dao.updatePosition(task.getId(), task.getPosition());
+        if((fields & Task.FIELD_RANK) != 0) dao.updateRank(task.getId(), task.getRank());
+        if((fields & Task.FIELD_TITLE) != 0) dao.updateTitle(task.getId(), task.getTitle());
+        if((fields & Task.FIELD_TAG) != 0) dao.updateTag(task.getId(), task.getTagId());
+        if((fields & Task.FIELD_START) != 0) dao.updateStart(task.getId(), task.getStart());
+        if((fields & Task.FIELD_END) != 0) dao.updateEnd(task.getId(), task.getEnd());
+    }
+
+}
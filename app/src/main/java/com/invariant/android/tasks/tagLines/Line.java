@@ -1,6 +1,6 @@
 package com.invariant.android.tasks.tagLines;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Class for easier line drawing. Stores positions (rows) of all tasks
@@ -14,51 +14,101 @@ class Line {
      */
     private Integer lineColumn;
     /**
-     * List of all rows (positions in the tasks ListView) that have a one given tag.
-     * Used to got Y coordinates for a line drawing.
+     * Ascending rows (positions in the tasks RecyclerView) of all tasks that have a one given tag.
+     * Only the first {@link this#rowCount} are used. Used to got Y coordinates for a line drawing.
      */
-    private ArrayList<Integer> rows;
+    private int[] rows;
+    private int rowCount;
 
     /**
      * Constructor. Sets all up.
      */
     Line() {
-        rows = new ArrayList<>();
+        rows = new int[4];
         this.lineColumn = null;
     }
 
     /**
-     * Getter method.
-     * @return All rows. See {@link this#rows}.
+     * Getter methods.
+     * @return Number of rows and the row at the given index. See {@link this#rows}.
      */
-    ArrayList<Integer> getRows() {
-        return this.rows;
+    int getRowCount() {
+        return rowCount;
+    }
+    int getRow(int idx) {
+        return rows[idx];
     }
 
     /**
-     * Kinda setter method. Adds new row. See {@link this#rows}.
-     * @param row Number of the row (position in the ListView) that has the same tag
+     * Kinda setter method. Adds new row after all others. See {@link this#rows}.
+     * @param row Number of the row (position in the RecyclerView) that has the same tag
      *            as other rows in this object
      */
     void addRow(int row) {
-        this.rows.add(row);
+        insertAt(rowCount, row);
+    }
+
+    /**
+     * Adds new row in its place among the others.
+     */
+    void insertRow(int row) {
+        insertAt(indexOfFirstAtOrAfter(row), row);
+    }
+
+    /**
+     * Removes the row if this line has it.
+     */
+    void removeRow(int row) {
+        int idx = indexOfFirstAtOrAfter(row);
+        if(idx == rowCount || rows[idx] != row) return;
+        System.arraycopy(rows, idx + 1, rows, idx, rowCount - idx - 1);
+        rowCount--;
+    }
+
+    /**
+     * Changes the row by {@param delta}. Rows stay ascending, so the changed row must not
+     * pass the other rows, and rows in its way have to be changed first.
+     */
+    void shiftRow(int row, int delta) {
+        int idx = indexOfFirstAtOrAfter(row);
+        if(idx < rowCount && rows[idx] == row) rows[idx] += delta;
+    }
+
+    /**
+     * @return Index of the first row that isn't before the given row, {@link #getRowCount()} if there is none.
+     */
+    int indexOfFirstAtOrAfter(int row) {
+        int low = 0, high = rowCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(rows[middle] < row) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    private void insertAt(int idx, int row) {
+        if(rowCount == rows.length) rows = Arrays.copyOf(rows, rowCount * 2);
+        System.arraycopy(rows, idx, rows, idx + 1, rowCount - idx);
+        rows[idx] = row;
+        rowCount++;
     }
 
     /**
      * Getter method. Used for line drawing (start of the line).
+     * Line has to have at least one row.
      * @return Position/row of the first element (uppermost) that has tag of this object.
      */
-    Integer getFirstRow() {
-        if(rows.size() <= 0) return null;
-        return rows.get(0);
+    int getFirstRow() {
+        return rows[0];
     }
     /**
      * Getter method. Used for line drawing (end of the line).
+     * Line has to have at least one row.
      * @return Position/row of the last element (lowest) that has tag of this object.
      */
-    Integer getLastRow() {
-        if(rows.size() <= 0) return null;
-        return rows.get(rows.size()-1);
+    int getLastRow() {
+        return rows[rowCount - 1];
     }
 
     /**
@@ -73,6 +123,13 @@ class Line {
         this.lineColumn = column;
     }
 
+    /**
+     * Removes the column, line isn't in any column.
+     */
+    void clearLineColumn() {
+        this.lineColumn = null;
+    }
+
     /**
      * Getter method.
      * @return See {@link this#lineColumn}
@@ -0,0 +1,205 @@
+package com.invariant.android.tasks.tagLines;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.invariant.android.tasks.R;
+import com.invariant.android.tasks.TaskChange;
+import com.invariant.android.tasks.TasksAdapter;
+
+import java.util.ArrayList;
+
+/**
+ * Draws the task tag lines over the tasks RecyclerView, at its right edge.
+ * A task tag line is line that connects all tasks with the same tag.
+ *
+ * Just the visible part is drawn: dots of the visible rows and the lines that pass through them.
+ * It is drawn with the list, so it scrolls with it, and the cost of drawing depends on
+ * the number of visible rows, not on the number of tasks.
+ */
+public class TagLinesDecoration extends RecyclerView.ItemDecoration {
+
+    /**
+     * RecyclerView of the tasks on which the lines are drawn.
+     */
+    private RecyclerView recyclerView;
+
+    /**
+     * Helper class for calculating all parameters for drawing the tag lines.
+     */
+    private TagLinesHelper tagLinesHelper;
+
+    /**
+     * Line and dots paint for drawing on the canvas.
+     */
+    private Paint linePaint;
+
+    /**
+     * Custom attributes, set in the {@code TagLines} style.
+     * rightMarginAttr - Space between the lines and the right edge of the list.
+     */
+    private int maxWidthAttr, lineWidthAttr, rightMarginAttr;
+    private int lineColorAttr;
+    /**
+     * Custom attributes, set in the {@code TagLines} style.
+     * True if for tag with just one element should be drawn one dot without a line.
+     */
+    private boolean drawOneDotAttr;
+
+    /**
+     * Constructor. Saves attributes and sets up the paint.
+     * Nothing is drawn until the lines are calculated, see {@link #refresh(TasksAdapter)}.
+     *
+     * @param recyclerView See {@link #recyclerView}
+     */
+    public TagLinesDecoration(RecyclerView recyclerView) {
+        this.recyclerView = recyclerView;
+
+        readAttributes(recyclerView.getContext());
+
+        linePaint = new Paint();
+        linePaint.setAntiAlias(true);
+        linePaint.setColor(Color.BLACK);
+    }
+
+    /**
+     * Calculates all lines again and redraws them.
+     * Mostly used when data is changed (list reordered).
+     *
+     * @param tasksAdapter Adapter of the RecyclerView of tasks in the activity.
+     */
+    public void refresh(TasksAdapter tasksAdapter) {
+        tagLinesHelper = new TagLinesHelper(recyclerView.getContext(), tasksAdapter,
+                maxWidthAttr, lineWidthAttr, drawOneDotAttr);
+        recyclerView.invalidate();
+    }
+
+    /**
+     * Updates the lines after the given change of the tasks list. Lines are calculated
+     * again only if the change can't be applied to them. See {@link TagLinesHelper#applyChange(TaskChange)}.
+     *
+     * @param change Change of the tasks list.
+     * @param tasksAdapter Adapter of the RecyclerView of tasks in the activity, already updated.
+     */
+    public void onTasksChanged(TaskChange change, TasksAdapter tasksAdapter) {
+        if(tagLinesHelper == null || !tagLinesHelper.applyChange(change)) {
+            refresh(tasksAdapter);
+        }
+    }
+
+    /**
+     * Reads and saves all custom attributes from the {@code TagLines} style.
+     *
+     * @param context RecyclerView context
+     */
+    private void readAttributes(Context context) {
+        TypedArray attributes = context.obtainStyledAttributes(R.style.TagLines, R.styleable.TagLines);
+
+        try {
+            maxWidthAttr = attributes.getDimensionPixelSize(
+                    R.styleable.TagLines_maxWidth,  1000000);
+            lineWidthAttr = attributes.getDimensionPixelSize(
+                    R.styleable.TagLines_preferredLineWidth, 5);
+            rightMarginAttr = attributes.getDimensionPixelSize(
+                    R.styleable.TagLines_rightMargin, 0);
+            lineColorAttr = attributes.getColor(R.styleable.TagLines_lineColor, 0xf000);
+            drawOneDotAttr = attributes.getBoolean(R.styleable.TagLines_drawOneDot, false);
+        } catch (Exception ignored) {
+        } finally {
+            // Important!
+            attributes.recycle();
+        }
+    }
+
+    /**
+     * Called on every draw of the list, after the rows. Draws the lines and dots
+     * of the visible rows based on {@link #tagLinesHelper} dimensions.
+     *
+     * @param canvas Canvas of the RecyclerView.
+     * @param parent RecyclerView.
+     * @param state State of the RecyclerView.
+     */
+    @Override
+    public void onDrawOver(@NonNull Canvas canvas, @NonNull RecyclerView parent, @NonNull RecyclerView.State state) {
+        if(tagLinesHelper == null) return;
+
+        // Any laid out row is the anchor, all rows have the same height
+        int rowHeight = -1, anchorRow = RecyclerView.NO_POSITION, anchorTop = 0;
+        for(int i = 0; i < parent.getChildCount(); i++) {
+            View child = parent.getChildAt(i);
+            int row = parent.getChildAdapterPosition(child);
+            if(row == RecyclerView.NO_POSITION) continue;
+            if(anchorRow == RecyclerView.NO_POSITION || row < anchorRow) {
+                anchorRow = row;
+                anchorTop = child.getTop();
+                rowHeight = child.getHeight();
+            }
+        }
+        if(anchorRow == RecyclerView.NO_POSITION || rowHeight <= 0) return;
+
+        // Visible rows
+        int firstRow = anchorRow - (anchorTop + rowHeight - 1) / rowHeight;
+        int lastRow = anchorRow + (parent.getHeight() - anchorTop) / rowHeight;
+
+        // Setup paint
+        linePaint.setStrokeWidth(tagLinesHelper.getLineWidth());
+        linePaint.setColor(lineColorAttr);
+        float radius = tagLinesHelper.getCircleRadius();
+        float left = parent.getWidth() - rightMarginAttr - tagLinesHelper.getViewWidth();
+
+        ArrayList<ArrayList<Line>> columns = tagLinesHelper.getColumns();
+        for(int column = 0; column < columns.size(); column++) {
+            ArrayList<Line> columnLines = columns.get(column);
+            float x = left + tagLinesHelper.getColumnX(column);
+
+            // Lines of the column don't overlap, so they start from the last one that starts before the visible rows
+            for(int idx = Math.max(findLastStartingAtOrBefore(columnLines, firstRow), 0); idx < columnLines.size(); idx++) {
+                Line line = columnLines.get(idx);
+                if(line.getFirstRow() > lastRow) break;
+                if(line.getLastRow() < firstRow) continue;
+
+                // Just the visible part of the line, it could span the whole list
+                int fromRow = Math.max(line.getFirstRow(), firstRow - 1);
+                int toRow = Math.min(line.getLastRow(), lastRow + 1);
+                canvas.drawLine(x, getRowY(fromRow, anchorRow, anchorTop, rowHeight),
+                        x, getRowY(toRow, anchorRow, anchorTop, rowHeight), linePaint);
+
+                // Draw the dots of the visible rows
+                for(int rowIdx = line.indexOfFirstAtOrAfter(firstRow); rowIdx < line.getRowCount(); rowIdx++) {
+                    int row = line.getRow(rowIdx);
+                    if(row > lastRow) break;
+                    canvas.drawCircle(x, getRowY(row, anchorRow, anchorTop, rowHeight), radius, linePaint);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Y coordinate of the center of the row, relative to the anchor row.
+     */
+    private static float getRowY(int row, int anchorRow, int anchorTop, int rowHeight) {
+        return anchorTop + (row - anchorRow) * (float) rowHeight + rowHeight / 2f;
+    }
+
+    /**
+     * @param lines Lines ordered by their first row.
+     * @return Index of the last line that starts at or before the row, or -1 if there is none.
+     */
+    private static int findLastStartingAtOrBefore(ArrayList<Line> lines, int row) {
+        int low = 0, high = lines.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(lines.get(middle).getFirstRow() <= row) low = middle + 1;
+            else high = middle;
+        }
+        return low - 1;
+    }
+
+}
@@ -3,46 +3,78 @@ package com.invariant.android.tasks.tagLines;
 import android.app.Activity;
 import android.content.Context;
 
+import androidx.annotation.VisibleForTesting;
+
 import com.invariant.android.tasks.AppData;
+import com.invariant.android.tasks.Tag;
+import com.invariant.android.tasks.TagRowIndex;
 import com.invariant.android.tasks.Task;
+import com.invariant.android.tasks.TaskChange;
+import com.invariant.android.tasks.TaskTree;
 import com.invariant.android.tasks.TasksAdapter;
+import com.invariant.android.tasks.database.TaskWindow;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Helper class for calculating all parameters for drawing the tag lines in
- * the {@link TagLinesView} class.
+ * the {@link TagLinesDecoration} class.
  */
 class TagLinesHelper {
 
     /**
-     * List of all tasks.
+     * Snapshot of all tasks, the same one the adapter of the tasks shows.
+     * It doesn't change while lines are calculated.
+     */
+    private TaskTree tasks;
+    /**
+     * Paged view of the tasks, used instead of {@link this#tasks} if it isn't null.
+     * Then lines are calculated just for the loaded tasks.
      */
-    private ArrayList<Task> tasks;
+    private TaskWindow taskWindow;
     /**
-     * Adapter for tasks ListView.
-     * Copied from the {@link com.invariant.android.tasks.MainActivity}
+     * Main application object. Rows of the tags are read from its {@link TagRowIndex}.
      */
-    private TasksAdapter tasksAdapter;
+    private AppData appData;
+    /**
+     * True if rows of the tags are read from the {@link TagRowIndex}, which is possible when
+     * all tasks are shown in the list order. Otherwise the tag of every task is read.
+     */
+    private boolean readIndex;
 
     /**
      * List of all lines organized by the task tag.
-     * HashMap<(tag of the task), ({@link Line} object for that tag)>
+     * HashMap<(tag id of the task), ({@link Line} object for that tag)>
+     */
+    private HashMap<Integer, Line> lines;
+    /**
+     * Lines of every column, ordered by their first row. Lines in one column don't overlap,
+     * so the lines at any rows are found with one binary search per column.
      */
-    private HashMap<String, Line> lines;
+    private ArrayList<ArrayList<Line>> columns;
+    /**
+     * Rows of all tasks that have a tag, ascending, and the tag ids of those tasks.
+     * Only the first {@link #taggedRowCount} are used. Used to find the lines of the rows
+     * that are shifted by a change of the list.
+     */
+    private int[] taggedRows, taggedTagIds;
+    private int taggedRowCount;
 
     /**
-     * Calculated width and height of the {@link TagLinesView} object
-     * based on the current number of lines and theirs arrangement.
+     * Calculated width of the area of the lines, based on the current
+     * number of lines and theirs arrangement.
      */
-    private int viewWidth, viewHeight;
+    private int viewWidth;
 
     /**
-     * Attributes of the {@link TagLinesView} object that are important for the
-     * calculating {@link TagLinesView} and it's lines dimensions and positions.
+     * Attributes of the {@link TagLinesDecoration} object that are important for the
+     * calculating of the lines dimensions and positions.
      *
-     * maxWidthAttr -   Maximum width of {@link TagLinesView} object
+     * maxWidthAttr -   Maximum width of the area of the lines
      * lineWidthAttr -  Preferred line width.
      * drawOneDotAttr - True if for tag with just one element should be drawn one dot without a line.
      */
@@ -62,17 +94,37 @@ class TagLinesHelper {
     /**
      * Constructor. Sets all element and calculates everything ({@link this#calculate()}).
      *
-     * @param context Context of the {@link TagLinesView} that is creating this object
-     * @param tasksAdapter See {@link this#tasksAdapter}
+     * @param context Context of the RecyclerView whose lines are drawn
+     * @param tasksAdapter Adapter of the tasks RecyclerView, whose tasks are shown
      * @param maxWidthAttr See {@link this#maxWidthAttr}
      * @param lineWidthAttr See {@link this#lineWidthAttr}
      */
     TagLinesHelper(Context context, TasksAdapter tasksAdapter,
                    int maxWidthAttr, int lineWidthAttr, boolean drawOneDotAttr) {
-        AppData appData = (AppData) ((Activity) context).getApplication();
-        this.tasks = appData.getTasks();
-        this.tasksAdapter = tasksAdapter;
+        this.appData = (AppData) ((Activity) context).getApplication();
+        this.tasks = tasksAdapter.getTasks();
+        this.taskWindow = appData.getTaskWindow();
+        this.readIndex = taskWindow == null && !tasksAdapter.isFiltered();
+        lines = new HashMap<>();
+        columns = new ArrayList<>();
+
+        this.maxWidthAttr = maxWidthAttr;
+        this.lineWidthAttr = lineWidthAttr;
+        this.drawOneDotAttr = drawOneDotAttr;
+
+        calculate();
+    }
+
+    /**
+     * Constructor for the tests. Calculates lines of all given tasks from their tags,
+     * without the application and the {@link TagRowIndex}.
+     */
+    @VisibleForTesting
+    TagLinesHelper(TaskTree tasks, int maxWidthAttr, int lineWidthAttr, boolean drawOneDotAttr) {
+        this.tasks = tasks;
+        this.readIndex = false;
         lines = new HashMap<>();
+        columns = new ArrayList<>();
 
         this.maxWidthAttr = maxWidthAttr;
         this.lineWidthAttr = lineWidthAttr;
@@ -85,60 +137,51 @@ class TagLinesHelper {
      * Calculates everything.
      */
     private void calculate() {
-        /*
-         * Calculating height
-         */
-        viewHeight = tasksAdapter.getRowHeight() * tasksAdapter.getCount();
-
-        /*
-         * Calculating width
-         */
-        viewWidth = 0;
+        // Rows for which lines are calculated
+        int firstRow = taskWindow == null ? 0 : taskWindow.getWindowStart();
+        int endRow = taskWindow == null ? tasks.size() : taskWindow.getWindowEnd();
 
         // Creates all lines and puts them in the lines HashMap
-        int currentRow = -1;
-        for(Task task : tasks) {
-            currentRow++;
-            if(task.getTag().isEmpty()) continue;
-            if(!lines.containsKey(task.getTag())) {
-                lines.put(task.getTag(), new Line());
+        if(readIndex) addIndexedRows(endRow);
+        else addScannedRows(firstRow, endRow);
+
+        // Lines ordered by their first row
+        Line[] sortedLines = lines.values().toArray(new Line[lines.size()]);
+        Arrays.sort(sortedLines, new Comparator<Line>() {
+            @Override
+            public int compare(Line a, Line b) {
+                return Integer.compare(a.getFirstRow(), b.getFirstRow());
             }
-            //noinspection ConstantConditions
-            lines.get(task.getTag()).addRow(currentRow);
-        }
+        });
 
         // Stores first row from which given column is free
         int[] rowFreeAt = new int[lines.size()];
-        for(int i = 0; i < lines.size(); i++) rowFreeAt[i] = 0;
-
-        // Calculates view width (by maximum number of lines present at one place)
-        // and sets column of every line
-        currentRow = -1;
-        Line currentLine;
-        for(Task task : tasks) {
-            currentRow++;
-            if(task.getTag().isEmpty()) continue;
-
-            currentLine = lines.get(task.getTag());
 
-            if(currentLine == null) continue;
-            if(!drawOneDotAttr && currentLine.getRows().size() <= 1) continue;
-            if(currentLine.isLineColumnSet()) continue;
+        // Sets column of every line, from the top, to the first column that is free
+        for(Line currentLine : sortedLines) {
+            if(!drawOneDotAttr && currentLine.getRowCount() <= 1) continue;
 
-            int numberOfOccupiedColumns = 0;
+            int currentRow = currentLine.getFirstRow();
             for(int column = 0; column < lines.size(); column++) {
-                numberOfOccupiedColumns++;
-
                 if(currentRow < rowFreeAt[column]) continue;
                 currentLine.setLineColumn(column);
                 rowFreeAt[column] = currentLine.getLastRow()+1;
+                if(column == columns.size()) columns.add(new ArrayList<Line>());
+                columns.get(column).add(currentLine);
                 break;
             }
-            viewWidth = Math.max(viewWidth, numberOfOccupiedColumns);
         }
 
+        calculateWidth();
+    }
+
+    /**
+     * Calculates view width (by maximum number of lines present at one place, which is
+     * the number of columns) and the horizontal scale.
+     */
+    private void calculateWidth() {
         // Width between every adjacent lines
-        viewWidth *= lineWidthAttr*4;
+        viewWidth = columns.size() * lineWidthAttr*4;
         // and the one line width before the first and after the last line
         viewWidth += lineWidthAttr*2;
 
@@ -153,34 +196,277 @@ class TagLinesHelper {
     }
 
     /**
-     * Getter methods.
-     * @return Calculated dimension.
+     * Updates calculated lines after the given change of the tasks list, without calculating
+     * everything again. Tagged rows after the changed one (or between the old and the new position
+     * of the moved task) are shifted, and just the line of the changed task is put to a column
+     * again, the first one where it fits. Other lines keep their columns, shifting doesn't make
+     * them overlap. So a task dragged over a few rows updates just those rows.
+     *
+     * @param change Change of the tasks list.
+     * @return true if lines are up to date, false if everything has to be calculated again.
+     */
+    boolean applyChange(TaskChange change) {
+        // Lines of the paged tasks are calculated just for the loaded ones
+        if(taskWindow != null) return false;
+
+        int tagId = change.getTask().getTagId();
+        int fromPosition = change.getFromPosition(), toPosition = change.getToPosition();
+        switch (change.getType()) {
+            case TaskChange.CHANGED:
+                if(!change.isTagChanged()) return true;
+                int previousTagId = change.getPreviousTask().getTagId();
+                detachLine(previousTagId);
+                detachLine(tagId);
+                removeTaggedRow(fromPosition);
+                insertTaggedRow(fromPosition, tagId);
+                attachLine(previousTagId);
+                break;
+            case TaskChange.MOVED:
+                detachLine(tagId);
+                removeTaggedRow(fromPosition);
+                // Rows in between take the place of the moved one
+                if(fromPosition < toPosition) shiftRows(fromPosition + 1, toPosition + 1, -1);
+                else shiftRows(toPosition, fromPosition, 1);
+                insertTaggedRow(toPosition, tagId);
+                break;
+            case TaskChange.INSERTED:
+                detachLine(tagId);
+                shiftRows(toPosition, Integer.MAX_VALUE, 1);
+                insertTaggedRow(toPosition, tagId);
+                break;
+            case TaskChange.REMOVED:
+                detachLine(tagId);
+                removeTaggedRow(fromPosition);
+                shiftRows(fromPosition + 1, Integer.MAX_VALUE, -1);
+                break;
+            default:
+                return false;
+        }
+        attachLine(tagId);
+        calculateWidth();
+        return true;
+    }
+
+    /**
+     * Adds {@param delta} to all tagged rows from {@param fromRow} (inclusive) to
+     * {@param endRow} (exclusive). Rows must not pass the rows outside of that range.
+     */
+    private void shiftRows(int fromRow, int endRow, int delta) {
+        int from = indexOfFirstTaggedRow(fromRow);
+        int end = indexOfFirstTaggedRow(endRow);
+        // Rows of one line stay ascending while they are shifted, when the ones in the way are shifted first
+        for(int i = 0; i < end - from; i++) {
+            int idx = delta > 0 ? end - 1 - i : from + i;
+            lines.get(taggedTagIds[idx]).shiftRow(taggedRows[idx], delta);
+            taggedRows[idx] += delta;
+        }
+    }
+
+    /**
+     * Adds the row to the line of the tag and to {@link #taggedRows}. Other rows are not shifted.
+     */
+    private void insertTaggedRow(int row, int tagId) {
+        if(tagId == Tag.NO_TAG_ID) return;
+        Line line = lines.get(tagId);
+        if(line == null) {
+            line = new Line();
+            lines.put(tagId, line);
+        }
+        line.insertRow(row);
+
+        int idx = indexOfFirstTaggedRow(row);
+        if(taggedRowCount == taggedRows.length) {
+            taggedRows = Arrays.copyOf(taggedRows, Math.max(taggedRowCount * 2, 16));
+            taggedTagIds = Arrays.copyOf(taggedTagIds, taggedRows.length);
+        }
+        System.arraycopy(taggedRows, idx, taggedRows, idx + 1, taggedRowCount - idx);
+        System.arraycopy(taggedTagIds, idx, taggedTagIds, idx + 1, taggedRowCount - idx);
+        taggedRows[idx] = row;
+        taggedTagIds[idx] = tagId;
+        taggedRowCount++;
+    }
+
+    /**
+     * Removes the row from its line and from {@link #taggedRows}, if it has a tag.
+     * Other rows are not shifted.
+     */
+    private void removeTaggedRow(int row) {
+        int idx = indexOfFirstTaggedRow(row);
+        if(idx == taggedRowCount || taggedRows[idx] != row) return;
+        lines.get(taggedTagIds[idx]).removeRow(row);
+        System.arraycopy(taggedRows, idx + 1, taggedRows, idx, taggedRowCount - idx - 1);
+        System.arraycopy(taggedTagIds, idx + 1, taggedTagIds, idx, taggedRowCount - idx - 1);
+        taggedRowCount--;
+    }
+
+    /**
+     * @return Index of the first tagged row not before the given row, {@link #taggedRowCount} if there is none.
+     */
+    private int indexOfFirstTaggedRow(int row) {
+        int low = 0, high = taggedRowCount;
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(taggedRows[middle] < row) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Removes the line of the tag from its column, before its rows are changed.
+     * Empty columns at the right are removed too.
+     */
+    private void detachLine(int tagId) {
+        Line line = lines.get(tagId);
+        if(line == null || !line.isLineColumnSet()) return;
+        ArrayList<Line> columnLines = columns.get(line.getLineColumn());
+        columnLines.remove(indexOfLineStartingAfter(columnLines, line.getFirstRow()) - 1);
+        line.clearLineColumn();
+        while(!columns.isEmpty() && columns.get(columns.size() - 1).isEmpty()) {
+            columns.remove(columns.size() - 1);
+        }
+    }
+
+    /**
+     * Puts the line of the tag to the first column where it doesn't overlap any line,
+     * or to a new column. Line without rows is removed.
+     */
+    private void attachLine(int tagId) {
+        Line line = lines.get(tagId);
+        if(line == null || line.isLineColumnSet()) return;
+        if(line.getRowCount() == 0) {
+            lines.remove(tagId);
+            return;
+        }
+        if(!drawOneDotAttr && line.getRowCount() <= 1) return;
+
+        for(int column = 0; column <= columns.size(); column++) {
+            if(column == columns.size()) columns.add(new ArrayList<Line>());
+            ArrayList<Line> columnLines = columns.get(column);
+            int idx = indexOfLineStartingAfter(columnLines, line.getFirstRow());
+            if(idx > 0 && columnLines.get(idx - 1).getLastRow() >= line.getFirstRow()) continue;
+            if(idx < columnLines.size() && columnLines.get(idx).getFirstRow() <= line.getLastRow()) continue;
+            columnLines.add(idx, line);
+            line.setLineColumn(column);
+            return;
+        }
+    }
+
+    /**
+     * @param columnLines Lines ordered by their first row.
+     * @return Index of the first line that starts after the row.
+     */
+    private static int indexOfLineStartingAfter(ArrayList<Line> columnLines, int row) {
+        int low = 0, high = columnLines.size();
+        while(low < high) {
+            int middle = (low + high) >>> 1;
+            if(columnLines.get(middle).getFirstRow() <= row) low = middle + 1;
+            else high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Adds the rows of all tags before {@param endRow} from the {@link TagRowIndex},
+     * without reading the tasks. Used when all tasks are shown in the list order.
+     */
+    private void addIndexedRows(int endRow) {
+        taggedRowCount = 0;
+        appData.visitTagRows(endRow, new TagRowIndex.RowVisitor() {
+            @Override
+            public void visit(int tagId, int row) {
+                addRow(tagId, row);
+            }
+        });
+
+        // Rows of the tags are visited tag by tag, so they are sorted as (row, tag id) pairs
+        long[] rowsWithTags = new long[taggedRowCount];
+        int count = 0;
+        for(Map.Entry<Integer, Line> entry : lines.entrySet()) {
+            Line line = entry.getValue();
+            long tagId = entry.getKey() & 0xffffffffL;
+            for(int idx = 0; idx < line.getRowCount(); idx++) {
+                rowsWithTags[count++] = (long) line.getRow(idx) << 32 | tagId;
+            }
+        }
+        Arrays.sort(rowsWithTags);
+        taggedRows = new int[taggedRowCount];
+        taggedTagIds = new int[taggedRowCount];
+        for(int idx = 0; idx < taggedRowCount; idx++) {
+            taggedRows[idx] = (int) (rowsWithTags[idx] >>> 32);
+            taggedTagIds[idx] = (int) rowsWithTags[idx];
+        }
+    }
+
+    /**
+     * Adds the rows of all tags from {@param firstRow} (inclusive) to {@param endRow} (exclusive)
+     * by reading the tag of every task. Used when tasks are paged or filtered.
+     */
+    private void addScannedRows(int firstRow, int endRow) {
+        int[] rowTagIds = getTagIds(firstRow, endRow);
+        taggedRows = new int[rowTagIds.length];
+        taggedTagIds = new int[rowTagIds.length];
+        taggedRowCount = 0;
+
+        for(int currentRow = firstRow; currentRow < endRow; currentRow++) {
+            int tagId = rowTagIds[currentRow - firstRow];
+            if(tagId == Tag.NO_TAG_ID) continue;
+            taggedRows[taggedRowCount] = currentRow;
+            taggedTagIds[taggedRowCount] = tagId;
+            addRow(tagId, currentRow);
+        }
+    }
+
+    /**
+     * Adds the row to the line of its tag, creating the line if needed.
+     * Rows of one tag have to be added in ascending order. Counts the row in {@link #taggedRowCount}.
+     */
+    private void addRow(int tagId, int row) {
+        Line line = lines.get(tagId);
+        if(line == null) {
+            line = new Line();
+            lines.put(tagId, line);
+        }
+        line.addRow(row);
+        taggedRowCount++;
+    }
+
+    /**
+     * @return Tag ids of the tasks in the rows from {@param firstRow} (inclusive) to
+     *         {@param endRow} (exclusive). Tasks that aren't loaded have no tag.
+     *         All tasks are read with one in-order iteration, without creating task objects.
+     */
+    private int[] getTagIds(int firstRow, int endRow) {
+        int[] rowTagIds = new int[endRow - firstRow];
+        if(taskWindow != null) {
+            for(int row = firstRow; row < endRow; row++) {
+                Task task = taskWindow.peek(row);
+                rowTagIds[row - firstRow] = task == null ? Tag.NO_TAG_ID : task.getTagId();
+            }
+        } else {
+            tasks.getTagIds(rowTagIds);
+        }
+        return rowTagIds;
+    }
+
+    /**
+     * Getter method.
+     * @return Calculated width of the area of the lines.
      */
     int getViewWidth() {
         return this.viewWidth;
     }
-    int getViewHeight() {
-        return this.viewHeight;
-    }
 
     /**
      * @param column Column (0-indexed from left to right) of the line
      * @return scaled X coordinate of that column (for that line)
-     *         from start of the canvas {@link TagLinesView}
+     *         from the left edge of the area of the lines
      */
     float getColumnX(int column) {
         float xFromLeft = lineWidthAttr*4 * (column+1);
         return getViewWidth() - (xFromLeft * horizontalScale);
     }
 
-    /**
-     * @param row Row (0-indexed from top to bottom) from the tasks ListView
-     * @return Y coordinate of the center of that row
-     */
-    float getRowY(int row) {
-        return row * tasksAdapter.getRowHeight() + (float)(tasksAdapter.getRowHeight()/2);
-    }
-
     /**
      * @return Scaled calculated dimension
      */
@@ -192,10 +478,10 @@ class TagLinesHelper {
     }
 
     /**
-     * @return See {@link this#lines}
+     * @return See {@link this#columns}
      */
-    HashMap<String, Line> getLines() {
-        return this.lines;
+    ArrayList<ArrayList<Line>> getColumns() {
+        return this.columns;
     }
 
 }
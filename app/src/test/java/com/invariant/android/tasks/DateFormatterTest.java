@@ -0,0 +1,85 @@
+package com.invariant.android.tasks;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link DateFormatter} and of its LRU cache of the formatted strings.
+ */
+public class DateFormatterTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    @Test
+    public void lru_evictsLeastRecentlyUsed() {
+        DateFormatter.LongLruCache cache = new DateFormatter.LongLruCache(3);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(3, "three");
+        // Used, so the second one is the least recently used now
+        assertEquals("one", cache.get(1));
+
+        cache.put(4, "four");
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals("four", cache.get(4));
+    }
+
+    @Test
+    public void lru_putOfCachedKey_replacesValue() {
+        DateFormatter.LongLruCache cache = new DateFormatter.LongLruCache(2);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        cache.put(1, "first");
+        cache.put(3, "three");
+
+        assertEquals("first", cache.get(1));
+        assertNull(cache.get(2));
+    }
+
+    @Test
+    public void lru_manyKeys_keepsLastOnes() {
+        DateFormatter.LongLruCache cache = new DateFormatter.LongLruCache(100);
+        // Negative and colliding keys too
+        for(long key = -500; key < 500; key++) cache.put(key * 4096, Long.toString(key));
+
+        for(long key = -500; key < 400; key++) assertNull(cache.get(key * 4096));
+        for(long key = 400; key < 500; key++) assertEquals(Long.toString(key), cache.get(key * 4096));
+
+        cache.clear();
+        assertNull(cache.get(499 * 4096));
+    }
+
+    @Test
+    public void format_usesLocalDay() {
+        TimeZone defaultZone = TimeZone.getDefault();
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+            Locale.setDefault(Locale.US);
+            DateFormatter.invalidate();
+
+            assertEquals("01/01/1970", DateFormatter.formatDate(0));
+            assertEquals("01/01/1970\n00:01", DateFormatter.formatDateTime(MINUTE + 5));
+            // Times before the epoch are in the previous day
+            assertEquals("31/12/1969", DateFormatter.formatDate(-1));
+            // Same day is the same cached string
+            assertSame(DateFormatter.formatDate(DAY + 1), DateFormatter.formatDate(2 * DAY - 1));
+
+            TimeZone.setDefault(TimeZone.getTimeZone("GMT+02:00"));
+            DateFormatter.invalidate();
+            assertEquals("02/01/1970", DateFormatter.formatDate(DAY - MINUTE));
+        } finally {
+            TimeZone.setDefault(defaultZone);
+            Locale.setDefault(defaultLocale);
+            DateFormatter.invalidate();
+        }
+    }
+
+}
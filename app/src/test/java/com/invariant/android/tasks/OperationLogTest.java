@@ -0,0 +1,136 @@
+package com.invariant.android.tasks;
+
+import android.os.Handler;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the merging of the pending changes and of the undo history in the {@link OperationLog}.
+ * Nothing is flushed, so no DB is needed.
+ */
+public class OperationLogTest {
+
+    private OperationLog operationLog;
+    private Task task, otherTask;
+
+    @Before
+    public void setUp() {
+        operationLog = new OperationLog(null, new Handler());
+        task = new Task(1);
+        otherTask = new Task(2);
+    }
+
+    @Test
+    public void moves_mergeIntoOne() {
+        operationLog.persist(TaskChange.moved(2, 3, task), null);
+        operationLog.persist(TaskChange.moved(3, 4, task), null);
+        operationLog.persist(TaskChange.moved(4, 7, task), null);
+
+        List<TaskChange> pending = operationLog.getPendingChanges();
+        assertEquals(1, pending.size());
+        assertChange(TaskChange.MOVED, 2, 7, pending.get(0));
+    }
+
+    @Test
+    public void moveBack_cancelsOut() {
+        operationLog.persist(TaskChange.moved(2, 5, task), null);
+        operationLog.persist(TaskChange.moved(5, 2, task), null);
+        assertTrue(operationLog.getPendingChanges().isEmpty());
+    }
+
+    @Test
+    public void insertThenChanges_isInsertOfLatestTask() {
+        Task changed = new Task(task);
+        operationLog.persist(TaskChange.inserted(0, task), null);
+        operationLog.persist(TaskChange.changed(0, task, changed), null);
+        operationLog.persist(TaskChange.moved(0, 4, changed), null);
+
+        List<TaskChange> pending = operationLog.getPendingChanges();
+        assertEquals(1, pending.size());
+        assertChange(TaskChange.INSERTED, 4, 4, pending.get(0));
+        assertSame(changed, pending.get(0).getTask());
+    }
+
+    @Test
+    public void insertThenRemove_cancelsOut() {
+        operationLog.persist(TaskChange.inserted(3, task), null);
+        operationLog.persist(TaskChange.removed(3, task), null);
+        assertTrue(operationLog.getPendingChanges().isEmpty());
+    }
+
+    @Test
+    public void undoneRemove_cancelsOut() {
+        operationLog.persist(TaskChange.removed(3, task), null);
+        operationLog.persist(TaskChange.inserted(3, task), null);
+        assertTrue(operationLog.getPendingChanges().isEmpty());
+
+        // Inserted back at another position, it isn't an undone removal
+        operationLog.persist(TaskChange.removed(3, task), null);
+        operationLog.persist(TaskChange.inserted(5, task), null);
+        assertEquals(2, operationLog.getPendingChanges().size());
+    }
+
+    @Test
+    public void moveThenRemove_isRemoveFromFirstPosition() {
+        operationLog.persist(TaskChange.moved(1, 6, task), null);
+        operationLog.persist(TaskChange.removed(6, task), null);
+
+        List<TaskChange> pending = operationLog.getPendingChanges();
+        assertEquals(1, pending.size());
+        assertChange(TaskChange.REMOVED, 1, 1, pending.get(0));
+    }
+
+    @Test
+    public void changes_keepFirstPreviousTask() {
+        Task first = new Task(task), second = new Task(task);
+        operationLog.persist(TaskChange.changed(2, task, first), null);
+        operationLog.persist(TaskChange.changed(2, first, second), null);
+
+        List<TaskChange> pending = operationLog.getPendingChanges();
+        assertEquals(1, pending.size());
+        assertSame(task, pending.get(0).getPreviousTask());
+        assertSame(second, pending.get(0).getTask());
+    }
+
+    @Test
+    public void onlyLastChange_isMerged() {
+        operationLog.persist(TaskChange.moved(1, 2, task), null);
+        operationLog.persist(TaskChange.moved(5, 6, otherTask), null);
+        operationLog.persist(TaskChange.moved(2, 3, task), null);
+        assertEquals(3, operationLog.getPendingChanges().size());
+    }
+
+    @Test
+    public void drag_isUndoneAtOnce() {
+        operationLog.record(TaskChange.moved(0, 1, task), null);
+        operationLog.record(TaskChange.moved(1, 2, task), null);
+
+        TaskChange undo = operationLog.undo();
+        assertChange(TaskChange.MOVED, 2, 0, undo);
+        assertNull(operationLog.undo());
+
+        TaskChange redo = operationLog.redo();
+        assertChange(TaskChange.MOVED, 0, 2, redo);
+        assertNull(operationLog.redo());
+    }
+
+    @Test
+    public void newChange_clearsRedo() {
+        operationLog.record(TaskChange.inserted(0, task), null);
+        operationLog.undo();
+        operationLog.record(TaskChange.inserted(0, otherTask), null);
+        assertNull(operationLog.redo());
+    }
+
+    private static void assertChange(int type, int fromPosition, int toPosition, TaskChange change) {
+        assertEquals(type, change.getType());
+        assertEquals(fromPosition, change.getFromPosition());
+        assertEquals(toPosition, change.getToPosition());
+    }
+
+}
@@ -0,0 +1,164 @@
+package com.invariant.android.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TagRowIndex}, compared with a plain list of the tag ids of the rows.
+ * Lists are long enough to split chunks (4096 rows) and to turn arrays into bitmaps,
+ * so inserted and removed gaps shift bits across the words.
+ */
+public class TagRowIndexTest {
+
+    @Test
+    public void getRowsWithAnyTag_findsRowsOfAllTags() {
+        TagRowIndex index = new TagRowIndex();
+        int[] tagIds = {1, Tag.NO_TAG_ID, 2, 1, 3};
+        for(int tagId : tagIds) index.append(tagId);
+
+        assertArrayEquals(new int[] {0, 2, 3}, index.getRowsWithAnyTag(new int[] {1, 2}));
+        assertArrayEquals(new int[] {}, index.getRowsWithAnyTag(new int[] {4}));
+    }
+
+    @Test
+    public void insertAndRemove_shiftRowsAcrossWords() {
+        TagRowIndex index = new TagRowIndex();
+        List<Integer> rows = new ArrayList<>();
+        // Dense tag, so its rows are a bitmap
+        for(int row = 0; row < 1000; row++) append(index, rows, row % 2 == 0 ? 1 : 2);
+
+        insert(index, rows, 0, 1);
+        insert(index, rows, 63, 2);
+        insert(index, rows, 64, 1);
+        remove(index, rows, 127);
+        remove(index, rows, 0);
+        assertRows(rows, index);
+    }
+
+    @Test
+    public void fullChunk_isSplit() {
+        TagRowIndex index = new TagRowIndex();
+        List<Integer> rows = new ArrayList<>();
+        for(int row = 0; row < 4096; row++) append(index, rows, row % 5 == 0 ? 1 : Tag.NO_TAG_ID);
+
+        // Inserted into the full first chunk
+        insert(index, rows, 100, 1);
+        insert(index, rows, 4000, 2);
+        for(int row = 0; row < 5000; row++) append(index, rows, 3);
+        assertRows(rows, index);
+    }
+
+    @Test
+    public void manyTags_inOneChunk() {
+        TagRowIndex index = new TagRowIndex();
+        List<Integer> rows = new ArrayList<>();
+        // More tags than containers of one chunk, every task has its own tag
+        for(int row = 0; row < 3000; row++) append(index, rows, row + 1);
+
+        insert(index, rows, 10, 7);
+        remove(index, rows, 20);
+        move(index, rows, 5, 2500);
+        setTag(index, rows, 30, 2);
+        // Chunk with the rows of every task is split too
+        for(int row = 0; row < 2000; row++) insert(index, rows, 1, 5000 + row);
+        assertRows(rows, index);
+    }
+
+    @Test
+    public void randomChanges_matchList() {
+        for(int tagCount : new int[] {3, 40, 500}) {
+            Random random = new Random(tagCount);
+            TagRowIndex index = new TagRowIndex();
+            List<Integer> rows = new ArrayList<>();
+
+            for(int step = 0; step < 30000; step++) {
+                int tagId = random.nextInt(4) == 0 ? Tag.NO_TAG_ID : 1 + random.nextInt(tagCount);
+                int operation = rows.isEmpty() ? 0 : random.nextInt(10);
+                if(operation < 5) {
+                    insert(index, rows, random.nextBoolean() ? rows.size() : random.nextInt(rows.size() + 1), tagId);
+                } else if(operation < 7) {
+                    remove(index, rows, random.nextInt(rows.size()));
+                } else if(operation < 8) {
+                    move(index, rows, random.nextInt(rows.size()), random.nextInt(rows.size()));
+                } else {
+                    setTag(index, rows, random.nextInt(rows.size()), tagId);
+                }
+                if(step % 5000 == 0) assertRows(rows, index);
+            }
+            assertRows(rows, index);
+        }
+    }
+
+    private static void append(TagRowIndex index, List<Integer> rows, int tagId) {
+        index.append(tagId);
+        rows.add(tagId);
+    }
+
+    private static void insert(TagRowIndex index, List<Integer> rows, int position, int tagId) {
+        index.insert(position, tagId);
+        rows.add(position, tagId);
+    }
+
+    private static void remove(TagRowIndex index, List<Integer> rows, int position) {
+        index.remove(position);
+        rows.remove(position);
+    }
+
+    private static void move(TagRowIndex index, List<Integer> rows, int fromPosition, int toPosition) {
+        int tagId = rows.remove(fromPosition);
+        rows.add(toPosition, tagId);
+        index.move(fromPosition, toPosition, tagId);
+    }
+
+    private static void setTag(TagRowIndex index, List<Integer> rows, int position, int tagId) {
+        index.setTag(position, rows.get(position), tagId);
+        rows.set(position, tagId);
+    }
+
+    /**
+     * Checks rows of every tag, both found by the tags and visited.
+     * @param rows Tag id of every row.
+     */
+    private static void assertRows(final List<Integer> rows, TagRowIndex index) {
+        int maxTagId = 0;
+        for(int tagId : rows) maxTagId = Math.max(maxTagId, tagId);
+        List<List<Integer>> rowsOfTags = new ArrayList<>();
+        for(int tagId = 0; tagId <= maxTagId; tagId++) rowsOfTags.add(new ArrayList<Integer>());
+        for(int row = 0; row < rows.size(); row++) rowsOfTags.get(rows.get(row)).add(row);
+        for(int tagId = 1; tagId <= maxTagId; tagId++) {
+            assertArrayEquals("Tag " + tagId, toArray(rowsOfTags.get(tagId)), index.getRowsWithAnyTag(new int[] {tagId}));
+        }
+
+        // Visited rows are ascending for every tag
+        final int endRow = rows.size() / 2;
+        final int[] lastRows = new int[maxTagId + 1];
+        final int[] visited = {0};
+        Arrays.fill(lastRows, -1);
+        index.visitRows(endRow, new TagRowIndex.RowVisitor() {
+            @Override
+            public void visit(int tagId, int row) {
+                assertTrue(row < endRow);
+                assertEquals((int) rows.get(row), tagId);
+                assertTrue(row > lastRows[tagId]);
+                lastRows[tagId] = row;
+                visited[0]++;
+            }
+        });
+        int tagged = 0;
+        for(int row = 0; row < endRow; row++) if(rows.get(row) != Tag.NO_TAG_ID) tagged++;
+        assertEquals(tagged, visited[0]);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for(int idx = 0; idx < array.length; idx++) array[idx] = list.get(idx);
+        return array;
+    }
+
+}
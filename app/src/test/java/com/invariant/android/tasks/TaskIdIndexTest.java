@@ -0,0 +1,112 @@
+package com.invariant.android.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TaskIdIndex}, mostly of the backward-shift deletion,
+ * compared with a {@link HashMap}.
+ */
+public class TaskIdIndexTest {
+
+    @Test
+    public void put_replacesEntryOfTheSameId() {
+        TaskTree tasks = TaskTree.of(createTasks(1, 3));
+        TaskIdIndex index = new TaskIdIndex();
+        index.put(tasks.getEntry(0));
+        index.put(tasks.getEntry(1));
+
+        TaskTree changed = TaskTree.of(createTasks(1, 2));
+        index.put(changed.getEntry(0));
+
+        assertEquals(2, index.size());
+        assertSame(changed.get(0), index.get(1));
+        assertSame(tasks.get(1), index.get(2));
+        assertNull(index.get(3));
+    }
+
+    @Test
+    public void emptyKey_isStoredSeparately() {
+        TaskTree tasks = TaskTree.of(createTasks(0, 2));
+        TaskIdIndex index = new TaskIdIndex();
+        index.put(tasks.getEntry(0));
+        index.put(tasks.getEntry(1));
+
+        assertEquals(2, index.size());
+        assertSame(tasks.get(0), index.get(0));
+        index.remove(0);
+        assertNull(index.get(0));
+        assertEquals(1, index.size());
+        index.remove(0);
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void remove_keepsProbeSequencesOfFollowingEntries() {
+        // Index is up to half full, so many entries are off their home slot and removals shift them back
+        TaskTree tasks = TaskTree.of(createTasks(1, 1001));
+        TaskIdIndex index = new TaskIdIndex();
+        for(int position = 0; position < tasks.size(); position++) index.put(tasks.getEntry(position));
+
+        for(int id = 1; id <= 1000; id += 2) index.remove(id);
+
+        assertEquals(500, index.size());
+        for(int id = 1; id <= 1000; id++) {
+            if(id % 2 == 1) assertNull(index.get(id));
+            else assertEquals(id, index.get(id).getId());
+        }
+    }
+
+    @Test
+    public void randomPutsAndRemoves_matchMap() {
+        Random random = new Random(7);
+        TaskTree tasks = TaskTree.of(createTasks(0, 3000));
+        TaskIdIndex index = new TaskIdIndex();
+        Map<Integer, Task> expected = new HashMap<>();
+
+        for(int step = 0; step < 20000; step++) {
+            int position = random.nextInt(tasks.size());
+            Task task = tasks.get(position);
+            if(random.nextInt(3) > 0) {
+                index.put(tasks.getEntry(position));
+                expected.put(task.getId(), task);
+            } else {
+                index.remove(task.getId());
+                expected.remove(task.getId());
+            }
+        }
+
+        assertEquals(expected.size(), index.size());
+        for(Task task : tasks) {
+            assertSame(expected.get(task.getId()), index.get(task.getId()));
+        }
+    }
+
+    @Test
+    public void getEntry_givesPositionInTheLatestTree() {
+        TaskTree tasks = TaskTree.of(createTasks(1, 101));
+        TaskIdIndex index = new TaskIdIndex();
+        for(int position = 0; position < tasks.size(); position++) index.put(tasks.getEntry(position));
+
+        tasks = tasks.withMoved(10, 90);
+        assertEquals(90, tasks.positionOf(index.getEntry(11)));
+        assertEquals(10, tasks.positionOf(index.getEntry(12)));
+    }
+
+    /**
+     * @return Tasks with ids from {@param fromId} (inclusive) to {@param toId} (exclusive).
+     */
+    private static List<Task> createTasks(int fromId, int toId) {
+        List<Task> tasks = new ArrayList<>();
+        for(int id = fromId; id < toId; id++) tasks.add(new Task(id));
+        return tasks;
+    }
+
+}
@@ -0,0 +1,98 @@
+package com.invariant.android.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TaskIntervalIndex}, compared with checking every task.
+ */
+public class TaskIntervalIndexTest {
+
+    @Test
+    public void findOverlapping_includesBounds() {
+        TaskIntervalIndex index = new TaskIntervalIndex();
+        index.add(new Task(1, "", 10, 20));
+        index.add(new Task(2, "", 20, 30));
+        index.add(new Task(3, "", 31, 40));
+
+        assertArrayEquals(new int[] {1, 2}, index.findOverlapping(20, 20));
+        assertArrayEquals(new int[] {1}, index.findOverlapping(0, 10));
+        assertArrayEquals(new int[] {}, index.findOverlapping(41, 50));
+        assertArrayEquals(new int[] {1, 2, 3}, index.findOverlapping(0, 100));
+    }
+
+    @Test
+    public void equalStarts_areOrderedById() {
+        TaskIntervalIndex index = new TaskIntervalIndex();
+        index.add(new Task(5, "", 10, 10));
+        index.add(new Task(2, "", 10, 50));
+        index.add(new Task(9, "", 5, 10));
+
+        assertArrayEquals(new int[] {9, 2, 5}, index.findOverlapping(10, 10));
+    }
+
+    @Test
+    public void remove_dropsJustTheTask() {
+        TaskIntervalIndex index = new TaskIntervalIndex();
+        Task first = new Task(1, "", 10, 20), second = new Task(2, "", 10, 20);
+        index.add(first);
+        index.add(second);
+
+        index.remove(first);
+        assertArrayEquals(new int[] {2}, index.findOverlapping(15, 15));
+        index.remove(second);
+        assertArrayEquals(new int[] {}, index.findOverlapping(15, 15));
+    }
+
+    @Test
+    public void randomRanges_matchScan() {
+        Random random = new Random(5);
+        TaskIntervalIndex index = new TaskIntervalIndex();
+        List<Task> tasks = new ArrayList<>();
+
+        for(int step = 0; step < 4000; step++) {
+            if(tasks.isEmpty() || random.nextInt(3) > 0) {
+                long start = random.nextInt(10000);
+                Task task = new Task(step, "", start, start + random.nextInt(random.nextBoolean() ? 50 : 2000));
+                tasks.add(task);
+                index.add(task);
+            } else {
+                index.remove(tasks.remove(random.nextInt(tasks.size())));
+            }
+
+            if(step % 100 == 0) {
+                long from = random.nextInt(11000);
+                long to = from + random.nextInt(300);
+                assertArrayEquals(findByScan(tasks, from, to), index.findOverlapping(from, to));
+            }
+        }
+    }
+
+    /**
+     * @return Ids of the tasks that overlap the range, ordered by start time and id.
+     */
+    private static int[] findByScan(List<Task> tasks, long from, long to) {
+        List<Task> found = new ArrayList<>();
+        for(Task task : tasks) {
+            if(task.getStart() <= to && task.getEnd() >= from) found.add(task);
+        }
+        Collections.sort(found, new Comparator<Task>() {
+            @Override
+            public int compare(Task a, Task b) {
+                if(a.getStart() != b.getStart()) return Long.compare(a.getStart(), b.getStart());
+                return Integer.compare(a.getId(), b.getId());
+            }
+        });
+        int[] ids = new int[found.size()];
+        for(int idx = 0; idx < ids.length; idx++) ids[idx] = found.get(idx).getId();
+        return ids;
+    }
+
+}
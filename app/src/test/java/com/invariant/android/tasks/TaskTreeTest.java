@@ -0,0 +1,164 @@
+package com.invariant.android.tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link TaskTree}: split and merge through inserts, removes, moves and appends,
+ * compared with a plain list, and positions of the entries.
+ */
+public class TaskTreeTest {
+
+    @Test
+    public void of_keepsOrder() {
+        List<Task> tasks = createTasks(0, 100);
+        assertTasks(tasks, TaskTree.of(tasks));
+        assertEquals(0, TaskTree.of(new ArrayList<Task>()).size());
+    }
+
+    @Test
+    public void withInserted_shiftsFollowingTasks() {
+        TaskTree tree = TaskTree.of(createTasks(0, 3));
+        Task inserted = new Task(10);
+
+        TaskTree changed = tree.withInserted(1, inserted);
+
+        assertEquals(4, changed.size());
+        assertSame(inserted, changed.get(1));
+        assertEquals(1, changed.get(2).getId());
+        // Old version doesn't change
+        assertEquals(3, tree.size());
+        assertEquals(1, tree.get(1).getId());
+    }
+
+    @Test
+    public void withRemoved_andWithMoved_matchList() {
+        List<Task> tasks = createTasks(0, 10);
+        TaskTree tree = TaskTree.of(tasks);
+
+        tree = tree.withRemoved(0);
+        tasks.remove(0);
+        assertTasks(tasks, tree);
+
+        tree = tree.withMoved(1, 7);
+        tasks.add(7, tasks.remove(1));
+        assertTasks(tasks, tree);
+
+        tree = tree.withMoved(8, 0);
+        tasks.add(0, tasks.remove(8));
+        assertTasks(tasks, tree);
+
+        assertSame(tree, tree.withMoved(3, 3));
+    }
+
+    @Test
+    public void withAppended_joinsLists() {
+        List<Task> first = createTasks(0, 50);
+        List<Task> second = createTasks(50, 70);
+        TaskTree tree = TaskTree.of(first).withAppended(TaskTree.of(second));
+
+        first.addAll(second);
+        assertTasks(first, tree);
+        assertTasks(second, TaskTree.EMPTY.withAppended(TaskTree.of(second)));
+    }
+
+    @Test
+    public void randomChanges_matchList() {
+        Random random = new Random(11);
+        List<Task> tasks = new ArrayList<>();
+        TaskTree tree = TaskTree.EMPTY;
+        int nextId = 0;
+
+        for(int step = 0; step < 5000; step++) {
+            int operation = tasks.isEmpty() ? 0 : random.nextInt(4);
+            if(operation == 0) {
+                int position = random.nextInt(tasks.size() + 1);
+                Task task = new Task(nextId++);
+                tasks.add(position, task);
+                tree = tree.withInserted(position, task);
+            } else if(operation == 1) {
+                int position = random.nextInt(tasks.size());
+                tasks.remove(position);
+                tree = tree.withRemoved(position);
+            } else if(operation == 2) {
+                int from = random.nextInt(tasks.size()), to = random.nextInt(tasks.size());
+                tasks.add(to, tasks.remove(from));
+                tree = tree.withMoved(from, to);
+            } else {
+                int position = random.nextInt(tasks.size());
+                Task task = new Task(tasks.get(position));
+                tasks.set(position, task);
+                tree = tree.withTask(position, task);
+            }
+            if(step % 500 == 0) assertTasks(tasks, tree);
+        }
+        assertTasks(tasks, tree);
+    }
+
+    @Test
+    public void positionOf_followsTheTask() {
+        List<Task> tasks = createTasks(0, 200);
+        TaskTree tree = TaskTree.of(tasks);
+        TaskTree.Entry entry = tree.getEntry(50);
+
+        tree = tree.withMoved(50, 120);
+        assertEquals(120, tree.positionOf(entry));
+
+        tree = tree.withInserted(0, new Task(1000));
+        assertEquals(121, tree.positionOf(entry));
+
+        // Changed task keeps its entry
+        Task changed = new Task(tree.get(121));
+        tree = tree.withTask(121, changed);
+        assertEquals(121, tree.positionOf(entry));
+        assertSame(changed, entry.getTask());
+
+        tree = tree.withRemoved(121);
+        assertEquals(-1, tree.positionOf(entry));
+    }
+
+    @Test
+    public void getEntries_andGetTagIds_areInOrder() {
+        List<Task> tasks = createTasks(0, 40);
+        for(Task task : tasks) task.setTagId(task.getId() % 3);
+        TaskTree tree = TaskTree.of(tasks);
+
+        TaskTree.Entry[] entries = new TaskTree.Entry[tasks.size()];
+        tree.getEntries(entries);
+        int[] tagIds = new int[tasks.size()];
+        tree.getTagIds(tagIds);
+        for(int position = 0; position < tasks.size(); position++) {
+            assertSame(tasks.get(position), entries[position].getTask());
+            assertEquals(position, tree.positionOf(entries[position]));
+            assertEquals(tasks.get(position).getTagId(), tagIds[position]);
+        }
+    }
+
+    /**
+     * @return Tasks with ids from {@param fromId} (inclusive) to {@param toId} (exclusive).
+     */
+    private static List<Task> createTasks(int fromId, int toId) {
+        List<Task> tasks = new ArrayList<>();
+        for(int id = fromId; id < toId; id++) tasks.add(new Task(id));
+        return tasks;
+    }
+
+    /**
+     * Checks that the tree has the same tasks as the list, by position and by iteration.
+     */
+    private static void assertTasks(List<Task> expected, TaskTree tree) {
+        assertEquals(expected.size(), tree.size());
+        for(int position = 0; position < expected.size(); position++) {
+            assertSame(expected.get(position), tree.get(position));
+        }
+        int position = 0;
+        for(Task task : tree) assertSame(expected.get(position++), task);
+        assertEquals(expected.size(), position);
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.invariant.android.tasks;
+
+import java.util.List;
+
+/**
+ * Gives the tests of other packages access to the package-private factories
+ * of the task lists and their changes.
+ */
+public class TestTasks {
+
+    /**
+     * @return Snapshot of the given tasks, in order. See {@link TaskTree#of}.
+     */
+    public static TaskTree treeOf(List<Task> tasks) {
+        return TaskTree.of(tasks);
+    }
+
+    /**
+     * Factory methods of the changes. See {@link TaskChange}.
+     */
+    public static TaskChange inserted(int position, Task task) {
+        return TaskChange.inserted(position, task);
+    }
+    public static TaskChange removed(int position, Task task) {
+        return TaskChange.removed(position, task);
+    }
+    public static TaskChange moved(int fromPosition, int toPosition, Task task) {
+        return TaskChange.moved(fromPosition, toPosition, task);
+    }
+    public static TaskChange changed(int position, Task previousTask, Task task) {
+        return TaskChange.changed(position, previousTask, task);
+    }
+
+}
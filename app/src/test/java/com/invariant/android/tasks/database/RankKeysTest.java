@@ -0,0 +1,94 @@
+package com.invariant.android.tasks.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the {@link RankKeys}: generated keys are strictly between their bounds,
+ * in the order of the strings, and there is always room for another key.
+ */
+public class RankKeysTest {
+
+    @Test
+    public void between_isBetweenBounds() {
+        assertBetween(null, null);
+        assertBetween(null, "1");
+        assertBetween("z", null);
+        assertBetween("a", "b");
+        assertBetween("a", "a1");
+        assertBetween("az", "b");
+        assertBetween("", "01");
+    }
+
+    @Test
+    public void between_neverEndsWithLowestDigit() {
+        assertFalse(RankKeys.between("a", "a1").endsWith("0"));
+        assertFalse(RankKeys.between(null, "01").endsWith("0"));
+    }
+
+    @Test
+    public void repeatedInserts_keepOrder() {
+        Random random = new Random(3);
+        List<String> keys = new ArrayList<>();
+        for(int step = 0; step < 2000; step++) {
+            int position = random.nextInt(keys.size() + 1);
+            String lower = position > 0 ? keys.get(position - 1) : null;
+            String upper = position < keys.size() ? keys.get(position) : null;
+            keys.add(position, RankKeys.between(lower, upper));
+        }
+        assertAscending(keys.toArray(new String[0]));
+    }
+
+    @Test
+    public void insertsAtOnePlace_growKeysSlowly() {
+        // Every insert after the same key halves the free space
+        String lower = "a", upper = "b";
+        for(int step = 0; step < 100; step++) {
+            upper = RankKeys.between(lower, upper);
+            assertBetween(lower, upper);
+        }
+        assertTrue(upper.length() < 30);
+    }
+
+    @Test
+    public void bisect_fillsAscendingKeys() {
+        String[] keys = new String[100];
+        RankKeys.bisect("a", "b", keys, 0, keys.length - 1);
+        assertTrue(keys[0].compareTo("a") > 0);
+        assertTrue(keys[keys.length - 1].compareTo("b") < 0);
+        assertAscending(keys);
+    }
+
+    @Test
+    public void spread_isAscendingAndShort() {
+        assertEquals(0, RankKeys.spread(0).length);
+        String[] keys = RankKeys.spread(10000);
+        assertEquals(10000, keys.length);
+        assertAscending(keys);
+        for(String key : keys) {
+            assertTrue(key.length() <= 4);
+            assertFalse(key.endsWith("0"));
+        }
+    }
+
+    /**
+     * Checks that a key between the bounds is strictly between them.
+     */
+    private static void assertBetween(String lower, String upper) {
+        String key = RankKeys.between(lower, upper);
+        if(lower != null) assertTrue(key + " after " + lower, key.compareTo(lower) > 0);
+        if(upper != null) assertTrue(key + " before " + upper, key.compareTo(upper) < 0);
+    }
+
+    private static void assertAscending(String[] keys) {
+        for(int idx = 1; idx < keys.length; idx++) {
+            assertTrue(keys[idx - 1] + " < " + keys[idx], keys[idx - 1].compareTo(keys[idx]) < 0);
+        }
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.invariant.android.tasks.database;
+
+import com.invariant.android.tasks.Task;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the coalescing in the {@link WriteQueue}. Flush is never run,
+ * so the queued operations stay pending and no DB is needed.
+ */
+public class WriteQueueTest {
+
+    /**
+     * Writer that just keeps the tasks, without running them.
+     */
+    private static class IdleWriter extends AbstractExecutorService {
+        List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+        @Override
+        public void shutdown() {
+        }
+        @Override
+        public List<Runnable> shutdownNow() {
+            return tasks;
+        }
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    }
+
+    private IdleWriter writer;
+    private WriteQueue writeQueue;
+
+    @Before
+    public void setUp() {
+        writer = new IdleWriter();
+        writeQueue = new WriteQueue(null, writer);
+    }
+
+    @Test
+    public void enqueue_copiesTaskAndLeavesItAlone() {
+        Task task = createTask(1);
+        task.setRank("a");
+
+        writeQueue.update(task);
+        assertEquals(Task.FIELD_RANK, task.getDirtyFields());
+        task.setRank("b");
+
+        assertEquals("a", writeQueue.getPendingTask(0).getRank());
+        assertEquals(Task.FIELD_RANK, writeQueue.getPendingTask(0).getDirtyFields());
+    }
+
+    @Test
+    public void update_withoutDirtyFields_isSkipped() {
+        writeQueue.update(createTask(1));
+        assertEquals(0, writeQueue.getPendingCount());
+    }
+
+    @Test
+    public void updates_collapseIntoOne_withAllDirtyFields() {
+        Task task = createTask(1);
+        task.setRank("a");
+        writeQueue.update(task);
+        task.setTagId(3);
+        writeQueue.update(task);
+
+        assertEquals(1, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.UPDATE, writeQueue.getPendingType(0));
+        assertEquals(Task.FIELD_RANK | Task.FIELD_TAG, writeQueue.getPendingTask(0).getDirtyFields());
+        assertEquals(3, writeQueue.getPendingTask(0).getTagId());
+    }
+
+    @Test
+    public void insertThenUpdate_isInsertOfLatestData() {
+        Task task = createTask(1);
+        writeQueue.insert(task);
+        task.setRank("later");
+        writeQueue.update(task);
+
+        assertEquals(1, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.INSERT, writeQueue.getPendingType(0));
+        assertEquals("later", writeQueue.getPendingTask(0).getRank());
+    }
+
+    @Test
+    public void insertThenDelete_cancelsOut() {
+        Task task = createTask(1);
+        writeQueue.insert(task);
+        writeQueue.delete(task);
+
+        assertEquals(WriteQueue.NONE, writeQueue.getPendingType(0));
+
+        // Cancelled operation isn't coalesced with the next one
+        writeQueue.insert(task);
+        assertEquals(2, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.INSERT, writeQueue.getPendingType(1));
+    }
+
+    @Test
+    public void deleteThenInsert_isUpdateOfAllFields() {
+        Task task = createTask(1);
+        writeQueue.delete(task);
+        writeQueue.insert(task);
+
+        assertEquals(1, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.UPDATE, writeQueue.getPendingType(0));
+        assertEquals(Task.ALL_FIELDS, writeQueue.getPendingTask(0).getDirtyFields());
+    }
+
+    @Test
+    public void updateThenDelete_isDelete() {
+        Task task = createTask(1);
+        task.setRank("a");
+        writeQueue.update(task);
+        writeQueue.delete(task);
+
+        assertEquals(1, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.DELETE, writeQueue.getPendingType(0));
+    }
+
+    @Test
+    public void shift_stopsCoalescing() {
+        Task task = createTask(1);
+        task.setRank("a");
+        writeQueue.update(task);
+        writeQueue.shift(0, 10, 1);
+        task.setRank("b");
+        writeQueue.update(task);
+
+        assertEquals(3, writeQueue.getPendingCount());
+        assertEquals(WriteQueue.SHIFT, writeQueue.getPendingType(1));
+        assertEquals("a", writeQueue.getPendingTask(0).getRank());
+        assertEquals("b", writeQueue.getPendingTask(2).getRank());
+    }
+
+    @Test
+    public void emptyShift_isSkipped() {
+        writeQueue.shift(5, 4, 1);
+        assertEquals(0, writeQueue.getPendingCount());
+    }
+
+    @Test
+    public void differentTasks_areNotCoalesced() {
+        writeQueue.insert(createTask(1));
+        writeQueue.insert(createTask(2));
+        assertEquals(2, writeQueue.getPendingCount());
+    }
+
+    @Test
+    public void flush_isScheduledOnce() {
+        Task task = createTask(1);
+        writeQueue.insert(task);
+        writeQueue.insert(createTask(2));
+        writeQueue.shift(0, 1, 1);
+        assertEquals(1, writer.tasks.size());
+    }
+
+    /**
+     * @return Task with the given id and no dirty fields, as if it was loaded.
+     */
+    private static Task createTask(int id) {
+        Task task = new Task(id);
+        task.clearDirtyFields();
+        return task;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.invariant.android.tasks.tagLines;
+
+import com.invariant.android.tasks.Tag;
+import com.invariant.android.tasks.Task;
+import com.invariant.android.tasks.TaskChange;
+import com.invariant.android.tasks.TestTasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the incremental updates of the tag lines ({@link TagLinesHelper#applyChange(TaskChange)}),
+ * compared with the lines calculated again from all tasks after every change.
+ */
+public class TagLinesHelperTest {
+
+    private static final int MAX_WIDTH = 1000, LINE_WIDTH = 2;
+
+    @Test
+    public void move_shiftsRowsInBetween() {
+        // Tags 1 2 1 2 -, the first task is moved to the end and back
+        List<Task> tasks = createTasks(1, 2, 1, 2, Tag.NO_TAG_ID);
+        TagLinesHelper helper = new TagLinesHelper(TestTasks.treeOf(tasks), MAX_WIDTH, LINE_WIDTH, true);
+
+        apply(helper, tasks, TestTasks.moved(0, 4, tasks.get(0)));
+        assertRows(helper, new int[] {0, 2}, new int[] {1, 4});
+        apply(helper, tasks, TestTasks.moved(4, 0, tasks.get(4)));
+        assertRows(helper, new int[] {0, 2}, new int[] {1, 3});
+    }
+
+    @Test
+    public void changedTag_movesRowToOtherLine() {
+        List<Task> tasks = createTasks(1, 1, 2, 2);
+        TagLinesHelper helper = new TagLinesHelper(TestTasks.treeOf(tasks), MAX_WIDTH, LINE_WIDTH, false);
+
+        apply(helper, tasks, changeTag(tasks, 1, 2));
+        // Line of the first tag has one row left, so it isn't drawn
+        assertRows(helper, new int[] {1, 2, 3});
+        assertSameLines(tasks, false, helper);
+    }
+
+    @Test
+    public void randomChanges_matchCalculatedLines() {
+        for(boolean drawOneDot : new boolean[] {true, false}) {
+            for(int tagCount : new int[] {1, 3, 12}) {
+                Random random = new Random(tagCount);
+                List<Task> tasks = new ArrayList<>();
+                for(int idx = 0; idx < 30; idx++) tasks.add(createTask(idx, randomTag(random, tagCount)));
+                TagLinesHelper helper = new TagLinesHelper(TestTasks.treeOf(tasks), MAX_WIDTH, LINE_WIDTH, drawOneDot);
+                int nextId = tasks.size();
+
+                for(int step = 0; step < 3000; step++) {
+                    int operation = tasks.isEmpty() ? 0 : random.nextInt(4);
+                    TaskChange change;
+                    if(operation == 0) {
+                        change = TestTasks.inserted(random.nextInt(tasks.size() + 1),
+                                createTask(nextId++, randomTag(random, tagCount)));
+                    } else if(operation == 1) {
+                        int position = random.nextInt(tasks.size());
+                        change = TestTasks.removed(position, tasks.get(position));
+                    } else if(operation == 2) {
+                        int fromPosition = random.nextInt(tasks.size());
+                        change = TestTasks.moved(fromPosition, random.nextInt(tasks.size()), tasks.get(fromPosition));
+                    } else {
+                        change = changeTag(tasks, random.nextInt(tasks.size()), randomTag(random, tagCount));
+                    }
+
+                    apply(helper, tasks, change);
+                    assertSameLines(tasks, drawOneDot, helper);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the change both to the list of the tasks and to the lines.
+     */
+    private static void apply(TagLinesHelper helper, List<Task> tasks, TaskChange change) {
+        switch (change.getType()) {
+            case TaskChange.INSERTED:
+                tasks.add(change.getToPosition(), change.getTask());
+                break;
+            case TaskChange.REMOVED:
+                tasks.remove(change.getFromPosition());
+                break;
+            case TaskChange.MOVED:
+                tasks.add(change.getToPosition(), tasks.remove(change.getFromPosition()));
+                break;
+            default:
+                tasks.set(change.getFromPosition(), change.getTask());
+                break;
+        }
+        assertTrue(helper.applyChange(change));
+    }
+
+    /**
+     * Checks that the lines have the same rows as the lines calculated from all tasks,
+     * and that lines in every column don't overlap.
+     */
+    private static void assertSameLines(List<Task> tasks, boolean drawOneDot, TagLinesHelper helper) {
+        TagLinesHelper calculated = new TagLinesHelper(TestTasks.treeOf(tasks), MAX_WIDTH, LINE_WIDTH, drawOneDot);
+        List<int[]> expected = getLineRows(calculated);
+        List<int[]> actual = getLineRows(helper);
+        assertEquals(expected.size(), actual.size());
+        for(int idx = 0; idx < expected.size(); idx++) {
+            assertArrayEquals(expected.get(idx), actual.get(idx));
+        }
+
+        List<ArrayList<Line>> columns = helper.getColumns();
+        for(int column = 0; column < columns.size(); column++) {
+            List<Line> columnLines = columns.get(column);
+            for(int idx = 0; idx < columnLines.size(); idx++) {
+                assertEquals(column, (int) columnLines.get(idx).getLineColumn());
+                if(idx > 0) assertTrue(columnLines.get(idx - 1).getLastRow() < columnLines.get(idx).getFirstRow());
+            }
+        }
+        // No empty columns at the right, they would widen the area of the lines
+        if(!columns.isEmpty()) assertFalse(columns.get(columns.size() - 1).isEmpty());
+    }
+
+    /**
+     * Checks that the lines in the columns have exactly the given rows.
+     * @param lines Rows of every line, ordered by the first row.
+     */
+    private static void assertRows(TagLinesHelper helper, int[]... lines) {
+        List<int[]> actual = getLineRows(helper);
+        assertEquals(lines.length, actual.size());
+        for(int idx = 0; idx < lines.length; idx++) assertArrayEquals(lines[idx], actual.get(idx));
+    }
+
+    /**
+     * @return Rows of all lines in the columns, ordered by their first row.
+     */
+    private static List<int[]> getLineRows(TagLinesHelper helper) {
+        List<int[]> lineRows = new ArrayList<>();
+        for(List<Line> columnLines : helper.getColumns()) {
+            for(Line line : columnLines) {
+                int[] rows = new int[line.getRowCount()];
+                for(int idx = 0; idx < rows.length; idx++) rows[idx] = line.getRow(idx);
+                lineRows.add(rows);
+            }
+        }
+        Collections.sort(lineRows, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        return lineRows;
+    }
+
+    /**
+     * @return Change of the tag of the task at the given position.
+     */
+    private static TaskChange changeTag(List<Task> tasks, int position, int tagId) {
+        Task previousTask = tasks.get(position);
+        Task task = new Task(previousTask);
+        task.setTagId(tagId);
+        return TestTasks.changed(position, previousTask, task);
+    }
+
+    private static int randomTag(Random random, int tagCount) {
+        return random.nextInt(4) == 0 ? Tag.NO_TAG_ID : 1 + random.nextInt(tagCount);
+    }
+
+    private static Task createTask(int id, int tagId) {
+        Task task = new Task(id);
+        task.setTagId(tagId);
+        return task;
+    }
+
+    /**
+     * @return Tasks with the given tags, with ids from 0.
+     */
+    private static List<Task> createTasks(int... tagIds) {
+        List<Task> tasks = new ArrayList<>();
+        for(int idx = 0; idx < tagIds.length; idx++) tasks.add(createTask(idx, tagIds[idx]));
+        return tasks;
+    }
+
+}